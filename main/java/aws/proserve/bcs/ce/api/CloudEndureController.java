@@ -6,6 +6,7 @@ package aws.proserve.bcs.ce.api;
 import aws.proserve.bcs.ce.CloudEndureCredential;
 import aws.proserve.bcs.ce.CloudEndureLicense;
 import aws.proserve.bcs.ce.CloudEndureRegion;
+import aws.proserve.bcs.ce.dto.AwsInstanceFrame;
 import aws.proserve.bcs.ce.dto.CloudEndureCredentialInput;
 import aws.proserve.bcs.ce.dto.GetAwsInstanceRequest;
 import aws.proserve.bcs.ce.dto.GetAwsVpcRequest;
@@ -19,6 +20,7 @@ import aws.proserve.bcs.ce.service.RegionService;
 import aws.proserve.bcs.dr.aws.AwsInstance;
 import aws.proserve.bcs.dr.aws.AwsVpc;
 import aws.proserve.bcs.dr.dto.Response;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.ResponseEntity;
@@ -29,13 +31,23 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.WebAsyncTask;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+
 @RestController
 @RequestMapping("/cloudendure")
 class CloudEndureController {
+    private static final String NDJSON = "application/x-ndjson";
+    private static final Duration STREAM_TIMEOUT = Duration.ofMinutes(30);
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    private final ObjectMapper mapper;
+
     private final CredentialService credentialService;
     private final LicenseService licenseService;
     private final RegionService regionService;
@@ -45,6 +57,8 @@ class CloudEndureController {
     private final CloudEndureStateMachineService cloudEndureStateMachineService;
 
     CloudEndureController(
+            ObjectMapper mapper,
+
             CredentialService credentialService,
             LicenseService licenseService,
             RegionService regionService,
@@ -52,6 +66,8 @@ class CloudEndureController {
             CloudEndureInstanceService cloudEndureInstanceService,
             CloudEndureNetworkService cloudEndureNetworkService,
             CloudEndureStateMachineService cloudEndureStateMachineService) {
+        this.mapper = mapper;
+
         this.credentialService = credentialService;
         this.licenseService = licenseService;
         this.regionService = regionService;
@@ -108,6 +124,33 @@ class CloudEndureController {
                 request.getSourceRegion(), request.getSourceCredential(), request.getVpcId()));
     }
 
+    /**
+     * Streams the qualified instances as newline-delimited JSON, see {@link AwsInstanceFrame}. The stream runs under
+     * its own {@link #STREAM_TIMEOUT}, since the default async request timeout of the container cuts a discovery of a
+     * large account short.
+     *
+     * @apiNote selected by <code>Accept: application/x-ndjson</code>.
+     */
+    @PutMapping(value = "/awsInstances", produces = NDJSON)
+    WebAsyncTask<Void> streamAwsInstances(@RequestBody GetAwsInstanceRequest request, HttpServletResponse response) {
+        return new WebAsyncTask<>(STREAM_TIMEOUT.toMillis(), () -> {
+            response.setContentType(NDJSON);
+            final var output = response.getOutputStream();
+            cloudEndureInstanceService.findAllQualifiedInstances(
+                    request.getSourceRegion(), request.getSourceCredential(), request.getVpcId(),
+                    frame -> {
+                        try {
+                            output.write(mapper.writeValueAsBytes(frame));
+                            output.write('\n');
+                            output.flush();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException("Unable to stream AWS instances", e);
+                        }
+                    });
+            return null;
+        });
+    }
+
     @PostMapping("/wizard")
     ResponseEntity<Response> runWizard(@RequestBody RunCloudEndureWizardRequest request) {
         cloudEndureStateMachineService.runWizard(request);
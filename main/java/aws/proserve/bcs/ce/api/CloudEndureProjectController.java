@@ -5,6 +5,7 @@ package aws.proserve.bcs.ce.api;
 
 import aws.proserve.bcs.ce.CloudEndureAuditLog;
 import aws.proserve.bcs.ce.CloudEndureMachine;
+import aws.proserve.bcs.ce.dto.MachineResult;
 import aws.proserve.bcs.ce.dto.ManageCloudEndureMachinesRequest;
 import aws.proserve.bcs.ce.service.CloudEndureBlueprintService;
 import aws.proserve.bcs.ce.service.CloudEndureProjectService;
@@ -97,15 +98,16 @@ class CloudEndureProjectController {
         return ResponseEntity.accepted().body(Response.SUCCESS);
     }
 
+    /**
+     * @return the outcome for each machine.
+     */
     @PutMapping("/{projectId}/machines/blueprint")
-    ResponseEntity<Response> configureBlueprint(
+    ResponseEntity<MachineResult[]> configureBlueprint(
             @PathVariable String projectId,
             @RequestBody ManageCloudEndureMachinesRequest request) {
         final var project = projectFinder.findOne(projectId);
-        for (var entry : request.getMachineIdMap().entrySet()) {
-            cloudEndureBlueprintService.configure(project, request.getSide(), entry.getKey(), entry.getValue());
-        }
-        return ResponseEntity.accepted().body(Response.SUCCESS);
+        return ResponseEntity.accepted().body(cloudEndureBlueprintService.configureAll(
+                project, request.getSide(), request.getMachineIdMap()));
     }
 
     @PostMapping("/{projectId}/machines")
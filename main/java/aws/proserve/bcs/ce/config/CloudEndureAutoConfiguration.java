@@ -3,7 +3,10 @@
 
 package aws.proserve.bcs.ce.config;
 
+import aws.proserve.bcs.ce.service.AwsClientRegistry;
 import aws.proserve.bcs.ce.service.Session;
+import aws.proserve.bcs.ce.service.SessionRefresher;
+import aws.proserve.bcs.ce.service.VpcMappingIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
@@ -34,11 +37,26 @@ class CloudEndureAutoConfiguration {
         this.properties = properties;
     }
 
+    @Bean
+    CloudEndureTransport cloudEndureTransport() {
+        return new CloudEndureTransport(properties.getApi());
+    }
+
+    @Bean
+    CloudEndureMetricsLogger cloudEndureMetricsLogger(
+            CloudEndureTransport transport,
+            AwsClientRegistry clientRegistry,
+            VpcMappingIndex mappingIndex,
+            SessionRefresher sessionRefresher) {
+        return new CloudEndureMetricsLogger(transport, clientRegistry, mappingIndex, sessionRefresher);
+    }
+
     @Bean
     @ConditionalOnMissingBean
-    RestTemplate restTemplate(RestTemplateBuilder builder) {
+    RestTemplate restTemplate(RestTemplateBuilder builder, CloudEndureTransport transport) {
         return builder.rootUri(properties.getApi().getUrl())
-                .interceptors((request, body, execution) -> {
+                .requestFactory(transport::getRequestFactory)
+                .interceptors(transport::recordLatency, (request, body, execution) -> {
                     if (session.getSecret() != null) {
                         request.getHeaders().set("X-XSRF-TOKEN", session.getSecret());
                     } else {
@@ -3,15 +3,18 @@
 
 package aws.proserve.bcs.ce.config;
 
+import aws.proserve.bcs.ce.service.LocalBlueprintLambda;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.lambda.AWSLambda;
 import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.context.annotation.Profile;
 
 @Configuration
 @ComponentScan({
@@ -22,12 +25,23 @@ import org.springframework.context.annotation.EnableAspectJAutoProxy;
 })
 @EnableAspectJAutoProxy
 class CloudEndureConfig {
+    static final String LOCAL_LAMBDA_PROFILE = "local-lambda";
 
     @Bean
+    @Profile("!" + LOCAL_LAMBDA_PROFILE)
     AWSLambda lambda() {
         return AWSLambdaClientBuilder.standard().build();
     }
 
+    /**
+     * Answers the blueprint functions, including the batch one, in-process for tests.
+     */
+    @Bean
+    @Profile(LOCAL_LAMBDA_PROFILE)
+    AWSLambda localLambda(ObjectMapper mapper) {
+        return LocalBlueprintLambda.echo(mapper);
+    }
+
     @Bean
     AmazonDynamoDB amazonDynamoDB() {
         return AmazonDynamoDBClientBuilder.standard().build();
@@ -0,0 +1,64 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.config;
+
+import aws.proserve.bcs.ce.service.AwsClientRegistry;
+import aws.proserve.bcs.ce.service.SessionRefresher;
+import aws.proserve.bcs.ce.service.VpcMappingIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Logs the counters of the CloudEndure transport, the AWS client pools, the VPC mapping index and the session
+ * refresher every {@link #INTERVAL_MILLIS}.
+ */
+class CloudEndureMetricsLogger {
+    static final long INTERVAL_MILLIS = 5 * 60 * 1000;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final CloudEndureTransport transport;
+    private final AwsClientRegistry clientRegistry;
+    private final VpcMappingIndex mappingIndex;
+    private final SessionRefresher sessionRefresher;
+
+    CloudEndureMetricsLogger(
+            CloudEndureTransport transport,
+            AwsClientRegistry clientRegistry,
+            VpcMappingIndex mappingIndex,
+            SessionRefresher sessionRefresher) {
+        this.transport = transport;
+        this.clientRegistry = clientRegistry;
+        this.mappingIndex = mappingIndex;
+        this.sessionRefresher = sessionRefresher;
+    }
+
+    @Scheduled(initialDelay = INTERVAL_MILLIS, fixedDelay = INTERVAL_MILLIS)
+    void logMetrics() {
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+
+        final var http = transport.getMetrics();
+        log.info("CloudEndure connections: {} leased, {} pending, {} available, {} max; latencies {} ms: {}",
+                http.getLeased(), http.getPending(), http.getAvailable(), http.getMax(),
+                http.getBuckets(), http.getLatencies());
+
+        for (var pool : clientRegistry.getMetrics()) {
+            log.info("Client pool {}: {}/{} clients, {} hits, {} misses, {} evictions",
+                    pool.getName(), pool.getSize(), pool.getMaxSize(), pool.getHits(), pool.getMisses(),
+                    pool.getEvictions());
+        }
+
+        final var mappings = mappingIndex.getMetrics();
+        log.info("VPC mappings: {} of {} region pairs, {} hits, {} misses, {} loads",
+                mappings.getSize(), mappings.getRegionPairs(), mappings.getHits(), mappings.getMisses(),
+                mappings.getLoads());
+
+        final var session = sessionRefresher.getMetrics();
+        log.info("Session: {} logins, {} failures, {} ms in total, {} ms at most",
+                session.getLogins(), session.getFailures(), session.getTotalMillis(), session.getMaxMillis());
+    }
+}
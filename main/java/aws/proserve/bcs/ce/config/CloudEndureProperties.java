@@ -5,6 +5,8 @@ package aws.proserve.bcs.ce.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.time.Duration;
+
 @ConfigurationProperties("cloudendure")
 public class CloudEndureProperties {
 
@@ -13,6 +15,16 @@ public class CloudEndureProperties {
      */
     private Api api;
 
+    /**
+     * Instance type catalogs of the regions.
+     */
+    private Catalog catalog = new Catalog();
+
+    /**
+     * Time to live of cached CloudEndure API lookups.
+     */
+    private Cache cache = new Cache();
+
     public Api getApi() {
         return api;
     }
@@ -21,12 +33,58 @@ public class CloudEndureProperties {
         this.api = api;
     }
 
+    public Catalog getCatalog() {
+        return catalog;
+    }
+
+    public void setCatalog(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+
     public static class Api {
         /**
          * Url of the service.
          */
         private String url = "https://console.cloudendure.com/api/latest";
 
+        /**
+         * Maximum pooled connections to the service.
+         */
+        private int maxConnections = 20;
+
+        /**
+         * Time-out to establish a connection.
+         */
+        private Duration connectTimeout = Duration.ofSeconds(5);
+
+        /**
+         * Time-out to wait for data of a response.
+         */
+        private Duration readTimeout = Duration.ofSeconds(30);
+
+        /**
+         * Time-out to wait for a pooled connection.
+         */
+        private Duration connectionRequestTimeout = Duration.ofSeconds(5);
+
+        /**
+         * How long an idle connection is kept alive.
+         */
+        private Duration keepAlive = Duration.ofSeconds(30);
+
+        /**
+         * Whether to accept gzip or deflate encoded responses.
+         */
+        private boolean gzip = true;
+
         String getUrl() {
             return url;
         }
@@ -34,5 +92,148 @@ public class CloudEndureProperties {
         public void setUrl(String url) {
             this.url = url;
         }
+
+        int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        Duration getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public void setConnectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+        }
+
+        Duration getReadTimeout() {
+            return readTimeout;
+        }
+
+        public void setReadTimeout(Duration readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+
+        Duration getConnectionRequestTimeout() {
+            return connectionRequestTimeout;
+        }
+
+        public void setConnectionRequestTimeout(Duration connectionRequestTimeout) {
+            this.connectionRequestTimeout = connectionRequestTimeout;
+        }
+
+        Duration getKeepAlive() {
+            return keepAlive;
+        }
+
+        public void setKeepAlive(Duration keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        boolean getGzip() {
+            return gzip;
+        }
+
+        public void setGzip(boolean gzip) {
+            this.gzip = gzip;
+        }
+    }
+
+    public static class Catalog {
+        /**
+         * Directory of the on-disk catalog snapshots, none if empty.
+         */
+        private String snapshotDir;
+
+        /**
+         * Age after which a catalog is refreshed in the background.
+         */
+        private Duration refreshAfter = Duration.ofHours(6);
+
+        public String getSnapshotDir() {
+            return snapshotDir;
+        }
+
+        public void setSnapshotDir(String snapshotDir) {
+            this.snapshotDir = snapshotDir;
+        }
+
+        public Duration getRefreshAfter() {
+            return refreshAfter;
+        }
+
+        public void setRefreshAfter(Duration refreshAfter) {
+            this.refreshAfter = refreshAfter;
+        }
+    }
+
+    public static class Cache {
+        /**
+         * How long the looked up credentials are cached.
+         */
+        private Duration credentials = Duration.ofMinutes(5);
+
+        /**
+         * How long the looked up regions are cached.
+         */
+        private Duration regions = Duration.ofHours(1);
+
+        /**
+         * How long the looked up licenses are cached.
+         */
+        private Duration licenses = Duration.ofMinutes(10);
+
+        /**
+         * How long the looked up projects are cached.
+         */
+        private Duration projects = Duration.ofMinutes(1);
+
+        /**
+         * How long the looked up machines are cached.
+         */
+        private Duration machines = Duration.ofSeconds(30);
+
+        public Duration getCredentials() {
+            return credentials;
+        }
+
+        public void setCredentials(Duration credentials) {
+            this.credentials = credentials;
+        }
+
+        public Duration getRegions() {
+            return regions;
+        }
+
+        public void setRegions(Duration regions) {
+            this.regions = regions;
+        }
+
+        public Duration getLicenses() {
+            return licenses;
+        }
+
+        public void setLicenses(Duration licenses) {
+            this.licenses = licenses;
+        }
+
+        public Duration getProjects() {
+            return projects;
+        }
+
+        public void setProjects(Duration projects) {
+            this.projects = projects;
+        }
+
+        public Duration getMachines() {
+            return machines;
+        }
+
+        public void setMachines(Duration machines) {
+            this.machines = machines;
+        }
     }
 }
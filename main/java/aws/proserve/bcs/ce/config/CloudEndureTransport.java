@@ -0,0 +1,108 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.config;
+
+import aws.proserve.bcs.ce.dto.ImmutableTransportMetrics;
+import aws.proserve.bcs.ce.dto.TransportMetrics;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A pooled, keep-alive HTTP transport for the CloudEndure API, which records the pool usage and a latency histogram.
+ * <p>
+ * A connection is kept alive as long as the <code>Keep-Alive</code> header of the server allows, at most for the
+ * configured keep-alive, which also applies when the server sends none. Idle and expired connections are evicted in
+ * the background, and a connection idle for {@link #VALIDATE_AFTER_INACTIVITY_MILLIS} is checked before it is reused.
+ */
+public class CloudEndureTransport implements DisposableBean {
+    /**
+     * Upper bounds in milliseconds of the latency buckets, the last bucket takes the rest.
+     */
+    static final long[] BUCKETS = {25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000};
+    static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2_000;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS.length + 1);
+
+    CloudEndureTransport(CloudEndureProperties.Api api) {
+        final var keepAlive = api.getKeepAlive().toMillis();
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(api.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(api.getMaxConnections()); // single host
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+
+        final var builder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy((response, context) -> {
+                    final var advertised = DefaultConnectionKeepAliveStrategy.INSTANCE
+                            .getKeepAliveDuration(response, context);
+                    return advertised > 0 ? Math.min(advertised, keepAlive) : keepAlive;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout((int) api.getConnectTimeout().toMillis())
+                        .setSocketTimeout((int) api.getReadTimeout().toMillis())
+                        .setConnectionRequestTimeout((int) api.getConnectionRequestTimeout().toMillis())
+                        .build());
+        if (!api.getGzip()) {
+            builder.disableContentCompression();
+        }
+        httpClient = builder.build();
+    }
+
+    ClientHttpRequestFactory getRequestFactory() {
+        return new HttpComponentsClientHttpRequestFactory(httpClient);
+    }
+
+    ClientHttpResponse recordLatency(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        final var start = System.nanoTime();
+        try {
+            return execution.execute(request, body);
+        } finally {
+            final var millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            var bucket = 0;
+            while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+                bucket++;
+            }
+            latencies.incrementAndGet(bucket);
+        }
+    }
+
+    public TransportMetrics getMetrics() {
+        final var stats = connectionManager.getTotalStats();
+        final var metrics = ImmutableTransportMetrics.builder()
+                .leased(stats.getLeased())
+                .pending(stats.getPending())
+                .available(stats.getAvailable())
+                .max(stats.getMax());
+        for (var bucket : BUCKETS) {
+            metrics.addBuckets(bucket);
+        }
+        for (int i = 0; i < latencies.length(); i++) {
+            metrics.addLatencies(latencies.get(i));
+        }
+        return metrics.build();
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        httpClient.close();
+    }
+}
@@ -0,0 +1,49 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.dto;
+
+import aws.proserve.bcs.dr.aws.AwsInstance;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+import javax.annotation.Nullable;
+
+/**
+ * One line of the streamed AWS instance discovery.
+ */
+@JsonSerialize(as = ImmutableAwsInstanceFrame.class)
+@JsonDeserialize(as = ImmutableAwsInstanceFrame.class)
+@Value.Immutable
+public interface AwsInstanceFrame {
+
+    Type getType();
+
+    /**
+     * @return the qualified instance, only present for {@link Type#instance} frames.
+     */
+    @Nullable
+    AwsInstance getInstance();
+
+    /**
+     * @return number of instances returned by EC2 so far.
+     */
+    int getListed();
+
+    /**
+     * @return number of instances whose qualification has been checked so far.
+     */
+    int getVerified();
+
+    /**
+     * @return number of qualified instances emitted so far.
+     */
+    int getQualified();
+
+    enum Type {
+        instance,
+        progress,
+        done,
+    }
+}
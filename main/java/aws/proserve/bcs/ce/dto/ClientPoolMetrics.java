@@ -0,0 +1,29 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * The usage counters of one pool of AWS clients.
+ */
+@JsonSerialize(as = ImmutableClientPoolMetrics.class)
+@JsonDeserialize(as = ImmutableClientPoolMetrics.class)
+@Value.Immutable
+public interface ClientPoolMetrics {
+
+    String getName();
+
+    int getSize();
+
+    int getMaxSize();
+
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+}
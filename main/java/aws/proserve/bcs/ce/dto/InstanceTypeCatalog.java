@@ -0,0 +1,49 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The instance types of one region, and the availability zones offering each of them. Zones are identified by their
+ * IDs, such as <code>use1-az1</code>, since zone names are mapped to different zones in each account.
+ */
+@JsonSerialize(as = ImmutableInstanceTypeCatalog.class)
+@JsonDeserialize(as = ImmutableInstanceTypeCatalog.class)
+@Value.Immutable
+public interface InstanceTypeCatalog {
+
+    String getRegion();
+
+    /**
+     * @return a map from type name to type.
+     */
+    Map<String, InstanceTypeSpec> getTypes();
+
+    /**
+     * @return a map from type name to the IDs of the availability zones offering it.
+     */
+    Map<String, Set<String>> getZoneIds();
+
+    long getLoadedAt();
+
+    default boolean contains(String type) {
+        return getTypes().containsKey(type);
+    }
+
+    /**
+     * @param availabilityZoneId {@code null} to check the region only.
+     */
+    default boolean isOffered(String type, @Nullable String availabilityZoneId) {
+        return contains(type)
+                && (availabilityZoneId == null
+                || getZoneIds().getOrDefault(type, Set.of()).contains(availabilityZoneId));
+    }
+}
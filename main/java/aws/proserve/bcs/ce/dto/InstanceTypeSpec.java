@@ -0,0 +1,37 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+import java.util.List;
+
+/**
+ * The sizing facts of one EC2 instance type.
+ */
+@JsonSerialize(as = ImmutableInstanceTypeSpec.class)
+@JsonDeserialize(as = ImmutableInstanceTypeSpec.class)
+@Value.Immutable
+public interface InstanceTypeSpec {
+
+    String getName();
+
+    int getVcpus();
+
+    /**
+     * @return memory in MiB.
+     */
+    long getMemory();
+
+    boolean getCurrentGeneration();
+
+    boolean getBurstable();
+
+    /**
+     * @return the supported processor architectures, like <code>x86_64</code>.
+     */
+    List<String> getArchitectures();
+}
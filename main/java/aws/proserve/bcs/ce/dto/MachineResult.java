@@ -0,0 +1,47 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+import javax.annotation.Nullable;
+
+/**
+ * The outcome of a bulk operation for one machine.
+ */
+@JsonSerialize(as = ImmutableMachineResult.class)
+@JsonDeserialize(as = ImmutableMachineResult.class)
+@Value.Immutable
+public interface MachineResult {
+
+    static MachineResult of(String machineId, Status status) {
+        return ImmutableMachineResult.builder().machineId(machineId).status(status).build();
+    }
+
+    static MachineResult failed(String machineId, String message) {
+        return ImmutableMachineResult.builder().machineId(machineId).status(Status.failed).message(message).build();
+    }
+
+    String getMachineId();
+
+    Status getStatus();
+
+    @Nullable
+    String getMessage();
+
+    enum Status {
+        success,
+        /**
+         * The item was modified concurrently and the change could not be applied.
+         */
+        conflict,
+        /**
+         * The machine has no blueprint yet.
+         */
+        missing,
+        failed,
+    }
+}
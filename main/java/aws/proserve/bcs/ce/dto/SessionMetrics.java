@@ -0,0 +1,25 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * The counters of CloudEndure session logins.
+ */
+@JsonSerialize(as = ImmutableSessionMetrics.class)
+@JsonDeserialize(as = ImmutableSessionMetrics.class)
+@Value.Immutable
+public interface SessionMetrics {
+
+    long getLogins();
+
+    long getFailures();
+
+    long getTotalMillis();
+
+    long getMaxMillis();
+}
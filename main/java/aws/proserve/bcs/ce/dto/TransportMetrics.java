@@ -0,0 +1,40 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+import java.util.List;
+
+/**
+ * The connection pool and latency counters of the CloudEndure transport.
+ */
+@JsonSerialize(as = ImmutableTransportMetrics.class)
+@JsonDeserialize(as = ImmutableTransportMetrics.class)
+@Value.Immutable
+public interface TransportMetrics {
+
+    int getLeased();
+
+    /**
+     * @return requests waiting for a connection, a saturated pool has some.
+     */
+    int getPending();
+
+    int getAvailable();
+
+    int getMax();
+
+    /**
+     * @return upper bounds in milliseconds of the latency buckets.
+     */
+    List<Long> getBuckets();
+
+    /**
+     * @return request counts per bucket of {@link #getBuckets()}, plus one for the slower ones.
+     */
+    List<Long> getLatencies();
+}
@@ -0,0 +1,30 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * The usage counters of the in-memory VPC mapping index.
+ */
+@JsonSerialize(as = ImmutableVpcMappingMetrics.class)
+@JsonDeserialize(as = ImmutableVpcMappingMetrics.class)
+@Value.Immutable
+public interface VpcMappingMetrics {
+
+    int getRegionPairs();
+
+    /**
+     * @return mappings of all region pairs, including those without regions.
+     */
+    int getSize();
+
+    long getHits();
+
+    long getMisses();
+
+    long getLoads();
+}
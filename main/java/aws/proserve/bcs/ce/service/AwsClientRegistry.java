@@ -0,0 +1,101 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.service;
+
+import aws.proserve.bcs.ce.dto.ClientPoolMetrics;
+import aws.proserve.bcs.dr.secret.Credential;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClientBuilder;
+import org.springframework.beans.factory.DisposableBean;
+
+import javax.annotation.Nullable;
+import javax.inject.Named;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Shares EC2 and IAM clients across requests, keyed by region and credential.
+ *
+ * @apiNote a {@code null} credential stands for the default credential provider chain of the portal itself.
+ */
+@Named
+public class AwsClientRegistry implements DisposableBean {
+    static final int MAX_CLIENTS = 32;
+    private static final String DEFAULT_CREDENTIAL = "default";
+
+    private final ClientPool<AmazonEC2> ec2Pool = new ClientPool<>("ec2", MAX_CLIENTS, AmazonEC2::shutdown);
+    private final ClientPool<AmazonIdentityManagement> iamPool =
+            new ClientPool<>("iam", MAX_CLIENTS, AmazonIdentityManagement::shutdown);
+
+    public AmazonEC2 ec2(String region, @Nullable Credential credential) {
+        return ec2Pool.get(key(region, credential), () -> {
+            final var builder = AmazonEC2ClientBuilder.standard().withRegion(region);
+            if (credential != null) {
+                builder.withCredentials(credential.toProvider());
+            }
+            return builder.build();
+        });
+    }
+
+    public AmazonIdentityManagement iam(String region, Credential credential) {
+        return iamPool.get(key(region, credential), () -> AmazonIdentityManagementClientBuilder.standard()
+                .withCredentials(credential.toProvider())
+                .withRegion(region)
+                .build());
+    }
+
+    public List<ClientPoolMetrics> getMetrics() {
+        return List.of(ec2Pool.getMetrics(), iamPool.getMetrics());
+    }
+
+    @Override
+    public void destroy() {
+        ec2Pool.clear();
+        iamPool.clear();
+    }
+
+    /**
+     * Keys on the credential value itself, which is not resolved through its provider.
+     */
+    private Object key(String region, @Nullable Credential credential) {
+        return new Key(region, credential);
+    }
+
+    /**
+     * Prints the region only, the credential holds secrets.
+     */
+    private static class Key {
+        private final String region;
+        private final Object credential;
+
+        Key(String region, @Nullable Credential credential) {
+            this.region = region;
+            this.credential = credential == null ? DEFAULT_CREDENTIAL : credential;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final var key = (Key) o;
+            return region.equals(key.region) && credential.equals(key.credential);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(region, credential);
+        }
+
+        @Override
+        public String toString() {
+            return region + (credential == DEFAULT_CREDENTIAL ? " with default credential" : " with project credential");
+        }
+    }
+}
@@ -0,0 +1,225 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.service;
+
+import aws.proserve.bcs.ce.CloudEndureBlueprint;
+import aws.proserve.bcs.ce.dto.MachineResult;
+import aws.proserve.bcs.ce.exception.CloudEndureException;
+import com.amazonaws.services.lambda.AWSLambda;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.model.ResourceNotFoundException;
+import com.amazonaws.services.lambda.model.TooManyRequestsException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Named;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Invokes <code>DRPCloudEndureConfigureBlueprint</code>, retrying throttled invocations with exponential backoff.
+ * <p>
+ * Many blueprints are configured through the batch variant <code>DRPCloudEndureConfigureBlueprints</code>, which takes
+ * <code>{"items": [payload, ...]}</code> and answers <code>{"results": [{"machineId", "blueprint"} or
+ * {"machineId", "errorMessage"}, ...]}</code>. Payloads are packed into chunks bounded by {@link #MAX_BATCH_SIZE} items
+ * and {@link #MAX_BATCH_BYTES} bytes. If the batch function is not deployed, or a chunk fails as a whole, its machines
+ * are configured with single invocations side by side. A missing batch function is probed again after
+ * {@link #BATCH_RETRY_INTERVAL}.
+ */
+@Named
+public class BlueprintFunction {
+    static final String FUNCTION_NAME = "DRPCloudEndureConfigureBlueprint";
+    static final String BATCH_FUNCTION_NAME = "DRPCloudEndureConfigureBlueprints";
+    static final int MAX_ATTEMPTS = 4;
+    static final int MAX_BATCH_SIZE = 25;
+    static final int MAX_BATCH_BYTES = 256 * 1024;
+    static final Duration BATCH_RETRY_INTERVAL = Duration.ofMinutes(10);
+    private static final long BASE_DELAY_MILLIS = 200;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ObjectMapper mapper;
+    private final AWSLambda lambda;
+    private final WorkerPool workerPool;
+
+    private volatile long batchUnavailableUntil;
+
+    BlueprintFunction(
+            ObjectMapper mapper,
+            AWSLambda lambda,
+            WorkerPool workerPool) {
+        this.mapper = mapper;
+        this.lambda = lambda;
+        this.workerPool = workerPool;
+    }
+
+    public CloudEndureBlueprint configure(Map<String, Object> payload) {
+        try {
+            final var output = invoke(FUNCTION_NAME, mapper.writeValueAsString(payload));
+            return mapper.readValue(output, CloudEndureBlueprint.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to configure blueprint", e);
+        }
+    }
+
+    /**
+     * Configures the blueprints chunk by chunk, the chunks run side by side on the worker pool. The machines of the
+     * chunks which could not be configured in batch are then configured one by one, also side by side.
+     *
+     * @param payloads payloads of {@link #FUNCTION_NAME}, each with a <code>machineId</code>.
+     * @return the outcome for each machine, in the order of the payloads.
+     * @apiNote must not be called from a task of the worker pool.
+     */
+    public List<MachineResult> configureAll(List<Map<String, Object>> payloads) {
+        final var chunks = chunk(payloads);
+        final var batchFutures = new ArrayList<CompletableFuture<List<MachineResult>>>();
+        for (var chunk : chunks) {
+            batchFutures.add(workerPool.submit(() -> configureBatch(chunk)));
+        }
+        final var batchResults = WorkerPool.joinAll(batchFutures);
+
+        final var futures = new ArrayList<CompletableFuture<MachineResult>>(payloads.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            final var results = batchResults.get(i);
+            if (results != null) {
+                results.forEach(r -> futures.add(CompletableFuture.completedFuture(r)));
+            } else {
+                for (var json : chunks.get(i)) {
+                    futures.add(workerPool.submit(() -> configureSingle(json)));
+                }
+            }
+        }
+        return WorkerPool.joinAll(futures);
+    }
+
+    private List<List<String>> chunk(List<Map<String, Object>> payloads) {
+        final var chunks = new ArrayList<List<String>>();
+        var chunk = new ArrayList<String>();
+        var bytes = 0;
+        for (var payload : payloads) {
+            final String json;
+            try {
+                json = mapper.writeValueAsString(payload);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to configure blueprint", e);
+            }
+
+            final var size = json.getBytes(StandardCharsets.UTF_8).length;
+            if (!chunk.isEmpty() && (chunk.size() == MAX_BATCH_SIZE || bytes + size > MAX_BATCH_BYTES)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                bytes = 0;
+            }
+            chunk.add(json);
+            bytes += size;
+        }
+
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * @return the outcome for each machine of the chunk, or {@code null} if the chunk has to be configured one by one.
+     */
+    @Nullable
+    private List<MachineResult> configureBatch(List<String> chunk) {
+        if (chunk.size() == 1 || System.currentTimeMillis() < batchUnavailableUntil) {
+            return null;
+        }
+
+        try {
+            return invokeBatch(chunk);
+        } catch (ResourceNotFoundException e) {
+            log.info("{} is not deployed, configure blueprints one by one", BATCH_FUNCTION_NAME);
+            batchUnavailableUntil = System.currentTimeMillis() + BATCH_RETRY_INTERVAL.toMillis();
+        } catch (RuntimeException | IOException e) {
+            log.warn("Unable to configure {} blueprints in batch, configure them one by one", chunk.size(), e);
+        }
+        return null;
+    }
+
+    private MachineResult configureSingle(String json) {
+        final var machineId = machineId(json);
+        try {
+            mapper.readValue(invoke(FUNCTION_NAME, json), CloudEndureBlueprint.class);
+            return MachineResult.of(machineId, MachineResult.Status.success);
+        } catch (RuntimeException | IOException e) {
+            log.warn("Unable to configure blueprint of machine [{}]", machineId, e);
+            return MachineResult.failed(machineId, e.getMessage());
+        }
+    }
+
+    private List<MachineResult> invokeBatch(List<String> chunk) throws IOException {
+        final var output = invoke(BATCH_FUNCTION_NAME, "{\"items\":[" + String.join(",", chunk) + "]}");
+        final var resultMap = new HashMap<String, MachineResult>();
+        for (var node : mapper.readTree(output).path("results")) {
+            final var machineId = node.path("machineId").asText();
+            resultMap.put(machineId, node.hasNonNull("errorMessage")
+                    ? MachineResult.failed(machineId, node.get("errorMessage").asText())
+                    : MachineResult.of(machineId, MachineResult.Status.success));
+        }
+
+        final var results = new ArrayList<MachineResult>(chunk.size());
+        for (var json : chunk) {
+            final var machineId = machineId(json);
+            results.add(resultMap.getOrDefault(machineId,
+                    MachineResult.failed(machineId, BATCH_FUNCTION_NAME + " returned no result")));
+        }
+        return results;
+    }
+
+    private String machineId(String json) {
+        try {
+            return mapper.readTree(json).path("machineId").asText();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read machine ID", e);
+        }
+    }
+
+    private String invoke(String functionName, String payload) {
+        final var request = new InvokeRequest()
+                .withFunctionName(functionName)
+                .withPayload(payload);
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                final var invoke = lambda.invoke(request);
+                final var output = StandardCharsets.UTF_8.decode(invoke.getPayload()).toString();
+                log.debug("{} output [{}]", functionName, output);
+                if (invoke.getFunctionError() != null) {
+                    throw new CloudEndureException("Unable to configure blueprint: " + output);
+                }
+                return output;
+            } catch (TooManyRequestsException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+                backoff(functionName, attempt);
+            }
+        }
+    }
+
+    private void backoff(String functionName, int attempt) {
+        final var delay = BASE_DELAY_MILLIS << (attempt - 1);
+        log.debug("{} is throttled, retry in about {} ms", functionName, delay);
+        try {
+            Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudEndureException("Interrupted while configuring blueprint");
+        }
+    }
+}
@@ -0,0 +1,155 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.service;
+
+import aws.proserve.bcs.ce.dto.ClientPoolMetrics;
+import aws.proserve.bcs.ce.dto.ImmutableClientPoolMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of AWS clients which evicts the least recently used one. Callers do not return clients, so an evicted
+ * client is shut down only after {@link #SHUTDOWN_DELAY_MINUTES}, long enough for the calls still using it to finish.
+ * At most {@link #MAX_RETIRED} evicted clients wait for that, beyond it the oldest ones are shut down early.
+ */
+public class ClientPool<T> {
+    static final long SHUTDOWN_DELAY_MINUTES = 15;
+    static final int MAX_RETIRED = 8;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+    private final int maxSize;
+    private final Consumer<T> shutdown;
+    private final Map<Object, Entry<T>> clients = new ConcurrentHashMap<>();
+    private final Set<T> retired = new LinkedHashSet<>(); // guarded by itself, oldest first
+    private final ScheduledExecutorService retirement;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    ClientPool(String name, int maxSize, Consumer<T> shutdown) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.shutdown = shutdown;
+        this.retirement = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, name + "-client-retirement");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param key a value object, compared with {@code equals}. Its {@code toString} is logged and must not reveal
+     *            secrets.
+     */
+    T get(Object key, Supplier<T> factory) {
+        var entry = clients.get(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+        } else {
+            entry = clients.computeIfAbsent(key, k -> {
+                misses.incrementAndGet();
+                return new Entry<>(factory.get());
+            });
+            if (clients.size() > maxSize) {
+                evict();
+            }
+        }
+
+        entry.lastUsed = System.nanoTime();
+        return entry.client;
+    }
+
+    private synchronized void evict() {
+        while (clients.size() > maxSize) {
+            Map.Entry<Object, Entry<T>> eldest = null;
+            for (var e : clients.entrySet()) {
+                if (eldest == null || e.getValue().lastUsed < eldest.getValue().lastUsed) {
+                    eldest = e;
+                }
+            }
+
+            if (eldest != null && clients.remove(eldest.getKey(), eldest.getValue())) {
+                evictions.incrementAndGet();
+                log.debug("Evict {} client [{}]", name, eldest.getKey());
+                retire(eldest.getValue().client);
+            }
+        }
+    }
+
+    private void retire(T client) {
+        final var expired = new ArrayList<T>();
+        synchronized (retired) {
+            retired.add(client);
+            final var iterator = retired.iterator();
+            while (retired.size() > MAX_RETIRED) {
+                expired.add(iterator.next());
+                iterator.remove();
+            }
+        }
+        if (!expired.isEmpty()) {
+            log.debug("Shut down {} retired {} clients early", expired.size(), name);
+            expired.forEach(shutdown);
+        }
+
+        retirement.schedule(() -> {
+            final boolean removed;
+            synchronized (retired) {
+                removed = retired.remove(client);
+            }
+            if (removed) {
+                shutdown.accept(client);
+            }
+        }, SHUTDOWN_DELAY_MINUTES, TimeUnit.MINUTES);
+    }
+
+    void clear() {
+        final var removed = new ArrayList<>(clients.values());
+        clients.clear();
+        retirement.shutdownNow();
+        removed.forEach(e -> shutdown.accept(e.client));
+
+        final List<T> expired;
+        synchronized (retired) {
+            expired = new ArrayList<>(retired);
+            retired.clear();
+        }
+        expired.forEach(shutdown);
+    }
+
+    ClientPoolMetrics getMetrics() {
+        return ImmutableClientPoolMetrics.builder()
+                .name(name)
+                .size(clients.size())
+                .maxSize(maxSize)
+                .hits(hits.get())
+                .misses(misses.get())
+                .evictions(evictions.get())
+                .build();
+    }
+
+    private static class Entry<T> {
+        private final T client;
+        private volatile long lastUsed = System.nanoTime();
+
+        Entry(T client) {
+            this.client = client;
+        }
+    }
+}
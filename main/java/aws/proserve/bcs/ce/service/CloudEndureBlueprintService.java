@@ -4,67 +4,64 @@
 package aws.proserve.bcs.ce.service;
 
 import aws.proserve.bcs.ce.CloudEndureBlueprint;
+import aws.proserve.bcs.ce.dto.MachineResult;
 import aws.proserve.bcs.ce.exception.CloudEndureException;
 import aws.proserve.bcs.dr.ce.CloudEndureConstants;
-import aws.proserve.bcs.dr.dynamo.DynamoConstants;
 import aws.proserve.bcs.dr.project.Project;
 import aws.proserve.bcs.dr.project.Side;
+import aws.proserve.bcs.dr.secret.Credential;
 import aws.proserve.bcs.dr.secret.SecretManager;
-import com.amazonaws.services.dynamodbv2.document.DynamoDB;
-import com.amazonaws.services.dynamodbv2.document.Item;
-import com.amazonaws.services.dynamodbv2.document.Table;
 import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.InstanceBlockDeviceMapping;
 import com.amazonaws.services.ec2.model.Tag;
-import com.amazonaws.services.lambda.AWSLambda;
-import com.amazonaws.services.lambda.model.InvokeRequest;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Named;
-import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 
 @Named
 public class CloudEndureBlueprintService {
+    private static final int MAX_FILTER_VALUES = 200;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final ObjectMapper mapper;
-    private final DynamoDB dynamoDB;
-    private final AWSLambda lambda;
     private final SecretManager secretManager;
+    private final AwsClientRegistry clientRegistry;
+    private final BlueprintFunction blueprintFunction;
+    private final VpcMappingIndex mappingIndex;
 
     private final InstanceTypeService instanceTypeService;
 
     CloudEndureBlueprintService(
-            ObjectMapper mapper,
-            DynamoDB dynamoDB,
-            AWSLambda lambda,
             SecretManager secretManager,
+            AwsClientRegistry clientRegistry,
+            BlueprintFunction blueprintFunction,
+            VpcMappingIndex mappingIndex,
 
             InstanceTypeService instanceTypeService) {
-        this.mapper = mapper;
-        this.dynamoDB = dynamoDB;
-        this.lambda = lambda;
         this.secretManager = secretManager;
+        this.clientRegistry = clientRegistry;
+        this.blueprintFunction = blueprintFunction;
+        this.mappingIndex = mappingIndex;
         this.instanceTypeService = instanceTypeService;
     }
 
     public CloudEndureBlueprint configure(Project project, Side side, String machineId, String instanceId) {
         log.debug("Configure blueprint for [{}] machine [{}, {}]", side, machineId, instanceId);
-        final AmazonEC2 ec2 = AmazonEC2ClientBuilder.standard()
-                .withRegion(project.getRegion(side).toAwsRegion())
-                .withCredentials(secretManager.getCredential(project).toProvider())
-                .build();
+        final var credential = secretManager.getCredential(project);
+        final AmazonEC2 ec2 = clientRegistry.ec2(project.getRegion(side).getName(), credential);
 
         final Instance instance;
         try {
@@ -74,17 +71,87 @@ public class CloudEndureBlueprintService {
             throw new CloudEndureException("找不到虚拟机 " + instanceId);
         }
 
+        return blueprintFunction.configure(preparePayload(project, side, credential, machineId, instance));
+    }
+
+    /**
+     * Configures the blueprints of many machines: all instances are described with one paged call, the subnet and
+     * security group IDs are resolved from the in-memory {@link VpcMappingIndex}, and the function calls are dispatched
+     * side by side in batches.
+     *
+     * @param machineIdMap a map from CE machine ID to EC2 instance ID.
+     * @return the outcome for each machine, in the order of the map.
+     * @apiNote must not be called from a task of the worker pool.
+     */
+    public MachineResult[] configureAll(Project project, Side side, Map<String, String> machineIdMap) {
+        log.debug("Configure blueprints for [{}] machines {}", side, machineIdMap.keySet());
+        final var credential = secretManager.getCredential(project);
+        final AmazonEC2 ec2 = clientRegistry.ec2(project.getRegion(side).getName(), credential);
+        final var instances = describeInstances(ec2, machineIdMap.values());
+
+        final var results = new LinkedHashMap<String, MachineResult>();
+        final var payloads = new ArrayList<Map<String, Object>>();
+        for (var entry : machineIdMap.entrySet()) {
+            final var instance = instances.get(entry.getValue());
+            if (instance == null) {
+                results.put(entry.getKey(), MachineResult.failed(entry.getKey(), "找不到虚拟机 " + entry.getValue()));
+                continue;
+            }
+
+            try {
+                payloads.add(preparePayload(project, side, credential, entry.getKey(), instance));
+                results.put(entry.getKey(), null);
+            } catch (RuntimeException e) {
+                log.warn("Unable to prepare blueprint of machine [{}]", entry.getKey(), e);
+                results.put(entry.getKey(), MachineResult.failed(entry.getKey(), e.getMessage()));
+            }
+        }
+
+        for (var result : blueprintFunction.configureAll(payloads)) {
+            results.put(result.getMachineId(), result);
+        }
+        return results.values().toArray(new MachineResult[0]);
+    }
+
+    /**
+     * Uses an <code>instance-id</code> filter rather than instance IDs, so that a missing instance does not fail the
+     * whole call.
+     */
+    private Map<String, Instance> describeInstances(AmazonEC2 ec2, Collection<String> instanceIds) {
+        final var ids = new ArrayList<>(new LinkedHashSet<>(instanceIds));
+        final var instances = new HashMap<String, Instance>();
+        for (int i = 0; i < ids.size(); i += MAX_FILTER_VALUES) {
+            final var request = new DescribeInstancesRequest().withFilters(new Filter("instance-id")
+                    .withValues(ids.subList(i, Math.min(i + MAX_FILTER_VALUES, ids.size()))));
+            DescribeInstancesResult result;
+            do {
+                result = ec2.describeInstances(request);
+                request.setNextToken(result.getNextToken());
+
+                for (var reservation : result.getReservations()) {
+                    for (var instance : reservation.getInstances()) {
+                        instances.put(instance.getInstanceId(), instance);
+                    }
+                }
+            } while (result.getNextToken() != null);
+        }
+        return instances;
+    }
+
+    private Map<String, Object> preparePayload(
+            Project project, Side side, Credential credential, String machineId, Instance instance) {
         final var securityGroups = new String[instance.getSecurityGroups().size()];
-        final var table = dynamoDB.getTable(DynamoConstants.TABLE_VPC);
+        final var sourceRegion = project.getRegion(Side.source).getName();
+        final var targetRegion = project.getRegion(Side.target).getName();
         final var subnetId = side == Side.source
-                ? findTargetId(table, instance.getSubnetId())
-                : findSourceId(table, instance.getSubnetId());
+                ? findTargetId(sourceRegion, targetRegion, instance.getSubnetId())
+                : findSourceId(sourceRegion, targetRegion, instance.getSubnetId());
 
         for (var i = 0; i < securityGroups.length; i++) {
             final var group = instance.getSecurityGroups().get(i);
             securityGroups[i] = side == Side.source
-                    ? findTargetId(table, group.getGroupId())
-                    : findSourceId(table, group.getGroupId());
+                    ? findTargetId(sourceRegion, targetRegion, group.getGroupId())
+                    : findSourceId(sourceRegion, targetRegion, group.getGroupId());
         }
 
         final var tags = instance.getTags();
@@ -92,7 +159,7 @@ public class CloudEndureBlueprintService {
                 ZonedDateTime.now().format(DateTimeFormatter.ISO_ZONED_DATE_TIME)));
 
         final var profile = instance.getIamInstanceProfile() == null ? null : instance.getIamInstanceProfile().getArn();
-        final var instanceType = instanceTypeService.mapType(ec2, project.getRegion(side).getName(),
+        final var instanceType = instanceTypeService.mapType(project.getRegion(side).getName(), credential,
                 instance.getInstanceType(), project.getCloudEndureProject().getTargetInstanceType());
         final var itemId = project.getCloudEndureProject().getItem(side).getId();
 
@@ -115,40 +182,22 @@ public class CloudEndureBlueprintService {
             payload.put("iamRole", "");
         }
 
-        try {
-            final var invoke = lambda.invoke(new InvokeRequest()
-                    .withFunctionName("DRPCloudEndureConfigureBlueprint")
-                    .withPayload(mapper.writeValueAsString(payload)));
-            final var output = StandardCharsets.UTF_8.decode(invoke.getPayload()).toString();
-            log.debug("Configure blueprint output [{}]", output);
-            return mapper.readValue(output, CloudEndureBlueprint.class);
-        } catch (IOException e) {
-            throw new UncheckedIOException("Unable to configure blueprint", e);
-        }
+        return payload;
     }
 
-    private String findTargetId(Table table, String id) {
-        Item result = null;
-        for (var item : table.query(DynamoConstants.KEY_ID, id)) {
-            result = item;
-        }
-
-        if (result == null) {
+    private String findTargetId(String sourceRegion, String targetRegion, String id) {
+        final var targetId = mappingIndex.findTargetId(sourceRegion, targetRegion, id);
+        if (targetId == null) {
             throw new CloudEndureException("Unable to find target ID " + id);
         }
-        return result.getString(DynamoConstants.KEY_TARGET_ID);
+        return targetId;
     }
 
-    private String findSourceId(Table table, String id) {
-        Item result = null;
-        for (var item : table.scan(DynamoConstants.KEY_TARGET_ID + " = :id", null,
-                Map.of(":id", id))) {
-            result = item;
-        }
-
-        if (result == null) {
+    private String findSourceId(String sourceRegion, String targetRegion, String id) {
+        final var sourceId = mappingIndex.findSourceId(sourceRegion, targetRegion, id);
+        if (sourceId == null) {
             throw new CloudEndureException("Unable to find source ID " + id);
         }
-        return result.getString(DynamoConstants.KEY_ID);
+        return sourceId;
     }
 }
@@ -3,18 +3,20 @@
 
 package aws.proserve.bcs.ce.service;
 
+import aws.proserve.bcs.ce.dto.AwsInstanceFrame;
+import aws.proserve.bcs.ce.dto.ImmutableAwsInstanceFrame;
 import aws.proserve.bcs.dr.aws.AwsInstance;
 import aws.proserve.bcs.dr.aws.ImmutableAwsInstance;
 import aws.proserve.bcs.dr.project.Project;
 import aws.proserve.bcs.dr.project.Side;
 import aws.proserve.bcs.dr.secret.Credential;
 import aws.proserve.bcs.dr.secret.SecretManager;
-import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import aws.proserve.bcs.dr.vpc.Filters;
 import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
 import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
-import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClientBuilder;
 import com.amazonaws.services.identitymanagement.model.AttachedPolicy;
 import com.amazonaws.services.identitymanagement.model.GetInstanceProfileRequest;
 import com.amazonaws.services.identitymanagement.model.ListAttachedRolePoliciesRequest;
@@ -24,16 +26,36 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import javax.inject.Named;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 @Named
 public class CloudEndureInstanceService {
 
+    static final int MAX_IN_FLIGHT = 4 * WorkerPool.THREADS;
+    private static final String[] LIVE_STATES = {"pending", "running", "stopping", "stopped"};
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final SecretManager secretManager;
+    private final AwsClientRegistry clientRegistry;
+    private final InstanceProfileCache profileCache;
+    private final WorkerPool workerPool;
 
-    CloudEndureInstanceService(SecretManager secretManager) {
+    CloudEndureInstanceService(
+            SecretManager secretManager,
+            AwsClientRegistry clientRegistry,
+            InstanceProfileCache profileCache,
+            WorkerPool workerPool) {
         this.secretManager = secretManager;
+        this.clientRegistry = clientRegistry;
+        this.profileCache = profileCache;
+        this.workerPool = workerPool;
     }
 
     /**
@@ -50,18 +72,12 @@ public class CloudEndureInstanceService {
     }
 
     public AwsInstance[] findAllQualifiedInstances(String region, Credential credential, String vpcId) {
-        final var ec2 = AmazonEC2ClientBuilder.standard()
-                .withCredentials(credential.toProvider())
-                .withRegion(region)
-                .build();
-
-        final var iam = AmazonIdentityManagementClientBuilder.standard()
-                .withCredentials(credential.toProvider())
-                .withRegion(region)
-                .build();
+        final var ec2 = clientRegistry.ec2(region, credential);
+        final var iam = clientRegistry.iam(region, credential);
 
-        final var instances = new ArrayList<AwsInstance>();
-        final var request = new DescribeInstancesRequest();
+        // pages are fetched on this thread while the instances of earlier pages are being qualified.
+        final var futures = new ArrayList<CompletableFuture<AwsInstance>>();
+        final var request = new DescribeInstancesRequest().withFilters(filters(vpcId));
         DescribeInstancesResult result;
         do {
             result = ec2.describeInstances(request);
@@ -69,19 +85,141 @@ public class CloudEndureInstanceService {
 
             for (var reservation : result.getReservations()) {
                 for (var instance : reservation.getInstances()) {
-                    if (!isQualified(instance, vpcId, iam)) {
-                        continue;
-                    }
-
-                    instances.add(ImmutableAwsInstance.builder()
-                            .from(AwsInstance.convert(instance))
-                            .region(region)
-                            .build());
+                    futures.add(workerPool.submit(() -> qualify(instance, region, vpcId, iam)));
                 }
             }
         } while (result.getNextToken() != null);
 
-        return instances.toArray(new AwsInstance[0]);
+        return WorkerPool.joinAll(futures).stream()
+                .filter(Objects::nonNull)
+                .toArray(AwsInstance[]::new);
+    }
+
+    /**
+     * Streams the qualified instances to the listener as soon as each of them is verified, interleaved with progress
+     * frames after every page and a final {@code done} frame. At most {@link #MAX_IN_FLIGHT} instances are held at any
+     * time, and the listener is never called concurrently.
+     */
+    public void findAllQualifiedInstances(
+            String region,
+            Credential credential,
+            String vpcId,
+            Consumer<AwsInstanceFrame> listener) {
+        final var ec2 = clientRegistry.ec2(region, credential);
+        final var iam = clientRegistry.iam(region, credential);
+
+        final var permits = new Semaphore(MAX_IN_FLIGHT);
+        final var failure = new AtomicReference<Throwable>();
+        final var listed = new AtomicInteger();
+        final var verified = new AtomicInteger();
+        final var qualified = new AtomicInteger();
+
+        // a failure stops the paging and the frames, and in-flight tasks are drained before it is rethrown.
+        try {
+            final var request = new DescribeInstancesRequest().withFilters(filters(vpcId));
+            DescribeInstancesResult result;
+            do {
+                result = ec2.describeInstances(request);
+                request.setNextToken(result.getNextToken());
+
+                for (var reservation : result.getReservations()) {
+                    for (var instance : reservation.getInstances()) {
+                        permits.acquireUninterruptibly();
+                        listed.incrementAndGet();
+                        final CompletableFuture<AwsInstance> future;
+                        try {
+                            future = workerPool.submit(() -> qualify(instance, region, vpcId, iam));
+                        } catch (RuntimeException e) {
+                            permits.release();
+                            throw e;
+                        }
+
+                        future.whenComplete((awsInstance, e) -> {
+                            try {
+                                if (e != null) {
+                                    failure.compareAndSet(null, e);
+                                } else if (failure.get() == null) {
+                                    verified.incrementAndGet();
+                                    if (awsInstance != null) {
+                                        emit(listener, AwsInstanceFrame.Type.instance, awsInstance,
+                                                listed.get(), verified.get(), qualified.incrementAndGet());
+                                    }
+                                }
+                            } catch (RuntimeException listenerFailure) {
+                                failure.compareAndSet(null, listenerFailure);
+                            } finally {
+                                permits.release();
+                            }
+                        });
+                    }
+                }
+
+                if (failure.get() == null) {
+                    emit(listener, AwsInstanceFrame.Type.progress, null, listed.get(), verified.get(), qualified.get());
+                }
+            } while (result.getNextToken() != null && failure.get() == null);
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+
+        permits.acquireUninterruptibly(MAX_IN_FLIGHT);
+        final var e = failure.get();
+        if (e != null) {
+            final var cause = e instanceof CompletionException ? e.getCause() : e;
+            throw cause instanceof RuntimeException
+                    ? (RuntimeException) cause
+                    : new IllegalStateException("Unable to find qualified instances", cause);
+        }
+
+        emit(listener, AwsInstanceFrame.Type.done, null, listed.get(), verified.get(), qualified.get());
+    }
+
+    private void emit(
+            Consumer<AwsInstanceFrame> listener,
+            AwsInstanceFrame.Type type,
+            @Nullable AwsInstance instance,
+            int listed,
+            int verified,
+            int qualified) {
+        final var frame = ImmutableAwsInstanceFrame.builder()
+                .type(type)
+                .instance(instance)
+                .listed(listed)
+                .verified(verified)
+                .qualified(qualified)
+                .build();
+
+        synchronized (listener) {
+            listener.accept(frame);
+        }
+    }
+
+    @Nullable
+    private AwsInstance qualify(
+            Instance instance,
+            String region,
+            @Nullable String vpcId,
+            AmazonIdentityManagement iam) {
+        if (!isQualified(instance, vpcId, iam)) {
+            return null;
+        }
+
+        return ImmutableAwsInstance.builder()
+                .from(AwsInstance.convert(instance))
+                .region(region)
+                .build();
+    }
+
+    /**
+     * Lets EC2 drop instances outside the VPC and instances which are terminated or being terminated.
+     */
+    private List<Filter> filters(@Nullable String vpcId) {
+        final var filters = new ArrayList<Filter>();
+        filters.add(new Filter("instance-state-name").withValues(LIVE_STATES));
+        if (vpcId != null) {
+            filters.add(Filters.vpcId(vpcId));
+        }
+        return filters;
     }
 
     public boolean isQualified(
@@ -100,16 +238,7 @@ public class CloudEndureInstanceService {
             return false;
         }
 
-        final var role = iam.getInstanceProfile(new GetInstanceProfileRequest()
-                .withInstanceProfileName(arn.substring(arn.lastIndexOf('/') + 1)))
-                .getInstanceProfile().getRoles().get(0); // has exactly one role
-
-        if (iam.listAttachedRolePolicies(new ListAttachedRolePoliciesRequest()
-                .withRoleName(role.getRoleName()))
-                .getAttachedPolicies()
-                .stream()
-                .map(AttachedPolicy::getPolicyName)
-                .noneMatch("AmazonSSMManagedInstanceCore"::equals)) {
+        if (!profileCache.isQualified(arn, a -> hasManagedInstancePolicy(a, iam))) {
             log.info("Instance [{}] profile has no AmazonSSMManagedInstanceCore policy attached",
                     instance.getInstanceId());
             return false;
@@ -122,4 +251,20 @@ public class CloudEndureInstanceService {
 
         return true;
     }
+
+    /**
+     * @return whether the role of the instance profile has <code>AmazonSSMManagedInstanceCore</code> attached.
+     */
+    private boolean hasManagedInstancePolicy(String arn, AmazonIdentityManagement iam) {
+        final var role = iam.getInstanceProfile(new GetInstanceProfileRequest()
+                .withInstanceProfileName(arn.substring(arn.lastIndexOf('/') + 1)))
+                .getInstanceProfile().getRoles().get(0); // has exactly one role
+
+        return iam.listAttachedRolePolicies(new ListAttachedRolePoliciesRequest()
+                .withRoleName(role.getRoleName()))
+                .getAttachedPolicies()
+                .stream()
+                .map(AttachedPolicy::getPolicyName)
+                .anyMatch("AmazonSSMManagedInstanceCore"::equals);
+    }
 }
@@ -8,11 +8,8 @@ import aws.proserve.bcs.ce.dto.GetAwsVpcRequest;
 import aws.proserve.bcs.ce.dto.ImmutableCreateCloudEndureProjectRequest;
 import aws.proserve.bcs.dr.aws.AwsVpc;
 import aws.proserve.bcs.dr.aws.ImmutableAwsVpc;
-import aws.proserve.bcs.dr.dynamo.DynamoConstants;
 import aws.proserve.bcs.dr.exception.PortalException;
-import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.DescribeVpcsRequest;
 import com.amazonaws.services.ec2.model.DescribeVpcsResult;
 import com.amazonaws.services.ec2.model.Vpc;
@@ -26,53 +23,58 @@ import javax.inject.Named;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 @Named
 public class CloudEndureNetworkService {
+    private static final Duration LIST_TIMEOUT = Duration.ofMinutes(1);
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final ObjectMapper mapper;
-    private final DynamoDB dynamoDB;
+    private final VpcMappingIndex mappingIndex;
     private final AWSLambda lambda;
+    private final AwsClientRegistry clientRegistry;
+    private final WorkerPool workerPool;
 
     CloudEndureNetworkService(
             ObjectMapper mapper,
-            DynamoDB dynamoDB,
-            AWSLambda lambda) {
+            VpcMappingIndex mappingIndex,
+            AWSLambda lambda,
+            AwsClientRegistry clientRegistry,
+            WorkerPool workerPool) {
         this.mapper = mapper;
-        this.dynamoDB = dynamoDB;
+        this.mappingIndex = mappingIndex;
         this.lambda = lambda;
+        this.clientRegistry = clientRegistry;
+        this.workerPool = workerPool;
     }
 
+    /**
+     * Lists the VPCs of both regions side by side and pairs each source VPC with its mapped target VPC.
+     *
+     * @apiNote must not be called from a task of the worker pool.
+     */
     public AwsVpc[] findAllAwsVpcs(GetAwsVpcRequest request) {
-        final var sourceEc2 = AmazonEC2ClientBuilder.standard()
-                .withRegion(request.getSourceRegion())
-                .withCredentials(request.getSourceCredential().toProvider())
-                .build();
-        final var targetEc2 = AmazonEC2ClientBuilder.standard()
-                .withRegion(request.getTargetRegion())
-                .withCredentials(request.getSourceCredential().toProvider())
-                .build();
-
-        final var table = dynamoDB.getTable(DynamoConstants.TABLE_VPC);
-        final var candidates = new ArrayList<Object[]>();
-        final var sourceVpcs = AwsVpc.getVpcs(sourceEc2);
-        final var targetVpcs = AwsVpc.getVpcs(targetEc2).stream().map(Vpc::getVpcId).collect(Collectors.toSet());
-        for (var sourceVpc : sourceVpcs) {
-            for (var item : table.query(DynamoConstants.KEY_ID, sourceVpc.getVpcId())) {
-                final var targetVpcId = item.getString(DynamoConstants.KEY_TARGET_ID);
-                if (targetVpcs.contains(targetVpcId)
-                        && request.getSourceRegion().equals(item.getString(DynamoConstants.KEY_SOURCE_REGION))
-                        && request.getTargetRegion().equals(item.getString(DynamoConstants.KEY_TARGET_REGION))) {
-                    candidates.add(new Object[]{sourceVpc, targetVpcId});
-                }
-            }
-        }
-        return candidates.stream().map(this::map).toArray(AwsVpc[]::new);
+        final var sourceEc2 = clientRegistry.ec2(request.getSourceRegion(), request.getSourceCredential());
+        final var targetEc2 = clientRegistry.ec2(request.getTargetRegion(), request.getSourceCredential());
+
+        final var sourceVpcsFuture = workerPool.submit(() -> AwsVpc.getVpcs(sourceEc2));
+        final var targetVpcsFuture = workerPool.submit(() -> AwsVpc.getVpcs(targetEc2).stream()
+                .map(Vpc::getVpcId)
+                .collect(Collectors.toSet()));
+        final var targetIds = mappingIndex.getTargetIds(request.getSourceRegion(), request.getTargetRegion());
+        WorkerPool.awaitAll(LIST_TIMEOUT, sourceVpcsFuture, targetVpcsFuture);
+
+        final var targetVpcs = targetVpcsFuture.join();
+        return sourceVpcsFuture.join().stream()
+                .map(vpc -> new VpcCandidate(vpc, targetIds.get(vpc.getVpcId())))
+                .filter(c -> c.peerVpcId != null && targetVpcs.contains(c.peerVpcId))
+                .map(VpcCandidate::toAwsVpc)
+                .toArray(AwsVpc[]::new);
     }
 
     void peerVpc(CreateCloudEndureProjectRequest request, String secretId) {
@@ -115,23 +117,23 @@ public class CloudEndureNetworkService {
     }
 
     public String findTargetVpcId(String sourceVpcId, String sourceRegion, String targetRegion) {
-        final var table = dynamoDB.getTable(DynamoConstants.TABLE_VPC);
-        for (var item : table.query(DynamoConstants.KEY_ID, sourceVpcId)) {
-            if (sourceRegion.equals(item.getString(DynamoConstants.KEY_SOURCE_REGION))
-                    && targetRegion.equals(item.getString(DynamoConstants.KEY_TARGET_REGION))) {
-                return item.getString(DynamoConstants.KEY_TARGET_ID);
-            }
-        }
-
-        return null;
+        return mappingIndex.findTargetId(sourceRegion, targetRegion, sourceVpcId);
     }
 
-    private AwsVpc map(Object[] candidate) {
-        final var vpc = (Vpc) candidate[0];
-        final var peerVpcId = (String) candidate[1];
-        return ImmutableAwsVpc.builder()
-                .from(AwsVpc.convert(vpc))
-                .peerVpcId(peerVpcId)
-                .build();
+    private static class VpcCandidate {
+        private final Vpc vpc;
+        private final String peerVpcId;
+
+        VpcCandidate(Vpc vpc, String peerVpcId) {
+            this.vpc = vpc;
+            this.peerVpcId = peerVpcId;
+        }
+
+        AwsVpc toAwsVpc() {
+            return ImmutableAwsVpc.builder()
+                    .from(AwsVpc.convert(vpc))
+                    .peerVpcId(peerVpcId)
+                    .build();
+        }
     }
 }
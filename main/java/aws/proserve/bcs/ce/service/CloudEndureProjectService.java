@@ -20,6 +20,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 
 import javax.inject.Named;
 import java.io.IOException;
@@ -39,16 +40,22 @@ public class CloudEndureProjectService {
 
     private final BlueprintService blueprintService;
     private final MachineService machineService;
+    private final InstanceProfileCache profileCache;
+    private final ApplicationEventPublisher eventPublisher;
 
     CloudEndureProjectService(
             ObjectMapper mapper,
             AWSLambda lambda,
             BlueprintService blueprintService,
-            MachineService machineService) {
+            MachineService machineService,
+            InstanceProfileCache profileCache,
+            ApplicationEventPublisher eventPublisher) {
         this.mapper = mapper;
         this.lambda = lambda;
         this.blueprintService = blueprintService;
         this.machineService = machineService;
+        this.profileCache = profileCache;
+        this.eventPublisher = eventPublisher;
     }
 
     String checkCutbackPrecondition(Project project) {
@@ -133,8 +140,11 @@ public class CloudEndureProjectService {
                             "instanceIds", request.getInstanceIds()))));
             final var result = Boolean.parseBoolean(StandardCharsets.UTF_8.decode(invoke.getPayload()).toString());
             if (!result) {
+                // the verdict may be stale, e.g. the SSM policy was detached after the instance was listed.
+                profileCache.invalidateAll();
                 throw new CloudEndureException("安装代理软件失败");
             }
+            eventPublisher.publishEvent(new MachinesRegisteredEvent(project));
         } catch (JsonProcessingException e) {
             throw new IllegalStateException("安装代理软件失败", e);
         }
@@ -152,6 +162,7 @@ public class CloudEndureProjectService {
             final var output = StandardCharsets.UTF_8.decode(invoke.getPayload()).toString();
             log.debug("Launch machines output [{}]", output);
             mapper.readValue(output, CloudEndureLaunchResult.class);
+            eventPublisher.publishEvent(new MachinesLaunchedEvent(project));
         } catch (IOException e) {
             throw new IllegalStateException("启动虚拟机失败 " + e.getLocalizedMessage(), e);
         }
@@ -15,6 +15,7 @@ import aws.proserve.bcs.dr.project.Project;
 import aws.proserve.bcs.dr.project.ProjectService;
 import aws.proserve.bcs.dr.project.Side;
 import aws.proserve.bcs.dr.secret.SecretManager;
+import org.springframework.context.ApplicationEventPublisher;
 
 import javax.inject.Named;
 
@@ -22,6 +23,7 @@ import javax.inject.Named;
 public class CloudEndureStateMachineService implements ProjectService {
 
     private final SecretManager securityManager;
+    private final ApplicationEventPublisher eventPublisher;
 
     private final CloudEndureNetworkService cloudEndureNetworkService;
     private final CloudEndureProjectService cloudEndureProjectService;
@@ -33,6 +35,7 @@ public class CloudEndureStateMachineService implements ProjectService {
 
     CloudEndureStateMachineService(
             SecretManager securityManager,
+            ApplicationEventPublisher eventPublisher,
 
             CloudEndureNetworkService cloudEndureNetworkService,
             CloudEndureProjectService cloudEndureProjectService,
@@ -42,6 +45,7 @@ public class CloudEndureStateMachineService implements ProjectService {
             CloudEndurePrepareCutbackMachine prepareCutbackMachine,
             CloudEndureRunWizardMachine runWizardMachine) {
         this.securityManager = securityManager;
+        this.eventPublisher = eventPublisher;
 
         this.cloudEndureProjectService = cloudEndureProjectService;
         this.cloudEndureNetworkService = cloudEndureNetworkService;
@@ -60,11 +64,13 @@ public class CloudEndureStateMachineService implements ProjectService {
 
         createProjectMachine.create(request, secretId,
                 cloudEndureNetworkService.findStagingSubnetId(request, secretId));
+        eventPublisher.publishEvent(new ProjectsChangedEvent());
     }
 
     @Override
     public void delete(Project project) {
         deleteProjectMachine.delete(project);
+        eventPublisher.publishEvent(new ProjectsChangedEvent());
         securityManager.deleteSecret(project.generateSecretId(Side.source));
         securityManager.deleteTempSecrets();
     }
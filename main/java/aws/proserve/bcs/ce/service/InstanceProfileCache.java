@@ -0,0 +1,72 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Remembers whether an instance profile qualifies for the CloudEndure agent, keyed by instance profile ARN.
+ * <p>
+ * Concurrent lookups of the same profile share one IAM round trip; failed lookups are not cached.
+ */
+@Named
+public class InstanceProfileCache {
+    static final Duration TTL = Duration.ofMinutes(10);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    boolean isQualified(String arn, Predicate<String> loader) {
+        final var now = System.currentTimeMillis();
+        final var fresh = new Entry(now + TTL.toMillis());
+        final var entry = entries.compute(arn, (k, e) -> e == null || e.isExpired(now) ? fresh : e);
+
+        if (entry == fresh) {
+            try {
+                fresh.verdict.complete(loader.test(arn));
+            } catch (RuntimeException e) {
+                entries.remove(arn, fresh);
+                fresh.verdict.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        try {
+            return entry.verdict.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public void invalidateAll() {
+        log.debug("Invalidate {} instance profile verdicts", entries.size());
+        entries.clear();
+    }
+
+    private static class Entry {
+        private final CompletableFuture<Boolean> verdict = new CompletableFuture<>();
+        private final long expiresAt;
+
+        Entry(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt && verdict.isDone();
+        }
+    }
+}
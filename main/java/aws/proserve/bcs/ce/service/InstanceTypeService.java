@@ -3,44 +3,260 @@
 
 package aws.proserve.bcs.ce.service;
 
+import aws.proserve.bcs.ce.config.CloudEndureProperties;
+import aws.proserve.bcs.ce.dto.ImmutableInstanceTypeCatalog;
+import aws.proserve.bcs.ce.dto.ImmutableInstanceTypeSpec;
+import aws.proserve.bcs.ce.dto.InstanceTypeCatalog;
+import aws.proserve.bcs.dr.secret.Credential;
 import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstanceTypeOfferingsRequest;
+import com.amazonaws.services.ec2.model.DescribeInstanceTypeOfferingsResult;
 import com.amazonaws.services.ec2.model.DescribeInstanceTypesRequest;
 import com.amazonaws.services.ec2.model.DescribeInstanceTypesResult;
-import com.amazonaws.services.ec2.model.InstanceTypeInfo;
+import com.amazonaws.services.ec2.model.LocationType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Named;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Keeps one instance type catalog per region. Offerings are recorded by availability zone ID, so one catalog serves
+ * every account.
+ * <p>
+ * Concurrent callers for a region without a catalog wait for a single load. A catalog older than
+ * {@link CloudEndureProperties.Catalog#getRefreshAfter()} is still served while it is reloaded in the background, with
+ * the credential it has been loaded with and a client looked up at that time. If a snapshot directory is configured, catalogs are written there and read back after
+ * a restart, unless they have been written by an older version without zone IDs or architectures.
+ */
 @Named
 public class InstanceTypeService {
+    static final Duration REFRESH_RETRY_AFTER = Duration.ofMinutes(10);
 
-    private final Map<String, Set<String>> typeMap = new HashMap<>();
+    private final Logger log = LoggerFactory.getLogger(getClass());
 
-    public String mapType(AmazonEC2 targetEc2, String region, String type, String defaultType) {
-        final Set<String> typeSet;
+    private final ObjectMapper mapper;
+    private final WorkerPool workerPool;
+    private final AwsClientRegistry clientRegistry;
+    private final CloudEndureProperties.Catalog properties;
 
-        if (typeMap.containsKey(region)) {
-            typeSet = typeMap.get(region);
-        } else {
-            final var instanceTypes = new ArrayList<InstanceTypeInfo>();
-            final var describeRequest = new DescribeInstanceTypesRequest();
-            DescribeInstanceTypesResult result;
-            do {
-                result = targetEc2.describeInstanceTypes(describeRequest);
-                describeRequest.setNextToken(result.getNextToken());
-                instanceTypes.addAll(result.getInstanceTypes());
-            } while (result.getNextToken() != null);
+    private final Map<String, Slot> catalogs = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
 
-            typeSet = instanceTypes.stream()
-                    .map(InstanceTypeInfo::getInstanceType)
-                    .collect(Collectors.toSet());
-            typeMap.put(region, typeSet);
+    InstanceTypeService(
+            ObjectMapper mapper,
+            WorkerPool workerPool,
+            AwsClientRegistry clientRegistry,
+            CloudEndureProperties properties) {
+        this.mapper = mapper;
+        this.workerPool = workerPool;
+        this.clientRegistry = clientRegistry;
+        this.properties = properties.getCatalog();
+    }
+
+    public String mapType(String region, @Nullable Credential credential, String type, String defaultType) {
+        return mapType(region, credential, type, defaultType, null);
+    }
+
+    /**
+     * @param availabilityZoneId the zone ID of the target subnet, {@code null} if unknown.
+     * @return the type if it is offered in the zone, otherwise the default type.
+     */
+    public String mapType(
+            String region,
+            @Nullable Credential credential,
+            String type,
+            String defaultType,
+            @Nullable String availabilityZoneId) {
+        return isOffered(region, credential, type, availabilityZoneId) ? type : defaultType;
+    }
+
+    public boolean isOffered(
+            String region,
+            @Nullable Credential credential,
+            String type,
+            @Nullable String availabilityZoneId) {
+        return getCatalog(region, credential).isOffered(type, availabilityZoneId);
+    }
+
+    /**
+     * @param credential of the target account, {@code null} for the portal's own; a stale catalog is reloaded with the
+     *                   credential it has been loaded with first.
+     */
+    public InstanceTypeCatalog getCatalog(String region, @Nullable Credential credential) {
+        final var loader = new Slot(new CompletableFuture<>(), credential);
+        final var slot = catalogs.computeIfAbsent(region, k -> loader);
+        if (slot == loader) {
+            try {
+                var catalog = readSnapshot(region);
+                if (catalog == null) {
+                    catalog = load(clientRegistry.ec2(region, credential), region);
+                    writeSnapshot(catalog);
+                }
+                loader.catalog.complete(catalog);
+            } catch (RuntimeException e) {
+                catalogs.remove(region, loader);
+                loader.catalog.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        final InstanceTypeCatalog catalog;
+        try {
+            catalog = slot.catalog.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+
+        if (System.currentTimeMillis() - catalog.getLoadedAt() >= properties.getRefreshAfter().toMillis()
+                && System.currentTimeMillis() - slot.failedAt >= REFRESH_RETRY_AFTER.toMillis()) {
+            refresh(region, slot);
+        }
+        return catalog;
+    }
+
+    /**
+     * Looks the client up when the reload runs, as a client captured from the caller may have been evicted and shut
+     * down by then. A failed reload is not tried again for {@link #REFRESH_RETRY_AFTER}.
+     */
+    private void refresh(String region, Slot slot) {
+        if (!refreshing.add(region)) {
+            return;
+        }
+
+        workerPool.submit(() -> {
+            try {
+                final var catalog = load(clientRegistry.ec2(region, slot.credential), region);
+                catalogs.put(region, new Slot(CompletableFuture.completedFuture(catalog), slot.credential));
+                writeSnapshot(catalog);
+            } catch (RuntimeException e) {
+                slot.failedAt = System.currentTimeMillis();
+                log.warn("Unable to refresh instance types of {}, retry in {}: {}", region, REFRESH_RETRY_AFTER,
+                        e.toString());
+            } finally {
+                refreshing.remove(region);
+            }
+            return null;
+        });
+    }
+
+    private InstanceTypeCatalog load(AmazonEC2 ec2, String region) {
+        final var catalog = ImmutableInstanceTypeCatalog.builder()
+                .region(region)
+                .loadedAt(System.currentTimeMillis());
+
+        final var typeRequest = new DescribeInstanceTypesRequest();
+        DescribeInstanceTypesResult typeResult;
+        do {
+            typeResult = ec2.describeInstanceTypes(typeRequest);
+            typeRequest.setNextToken(typeResult.getNextToken());
+
+            for (var info : typeResult.getInstanceTypes()) {
+                catalog.putTypes(info.getInstanceType(), ImmutableInstanceTypeSpec.builder()
+                        .name(info.getInstanceType())
+                        .vcpus(info.getVCpuInfo().getDefaultVCpus())
+                        .memory(info.getMemoryInfo().getSizeInMiB())
+                        .currentGeneration(Boolean.TRUE.equals(info.getCurrentGeneration()))
+                        .burstable(Boolean.TRUE.equals(info.getBurstablePerformanceSupported()))
+                        .architectures(info.getProcessorInfo().getSupportedArchitectures())
+                        .build());
+            }
+        } while (typeResult.getNextToken() != null);
+
+        final var zones = new HashMap<String, Set<String>>();
+        final var offeringRequest = new DescribeInstanceTypeOfferingsRequest()
+                .withLocationType(LocationType.AvailabilityZoneId);
+        DescribeInstanceTypeOfferingsResult offeringResult;
+        do {
+            offeringResult = ec2.describeInstanceTypeOfferings(offeringRequest);
+            offeringRequest.setNextToken(offeringResult.getNextToken());
+
+            for (var offering : offeringResult.getInstanceTypeOfferings()) {
+                zones.computeIfAbsent(offering.getInstanceType(), k -> new HashSet<>()).add(offering.getLocation());
+            }
+        } while (offeringResult.getNextToken() != null);
+
+        final var result = catalog.zoneIds(zones).build();
+        log.info("Loaded {} instance types of {}", result.getTypes().size(), region);
+        return result;
+    }
+
+    @Nullable
+    private InstanceTypeCatalog readSnapshot(String region) {
+        final var path = snapshotPath(region);
+        if (path == null || !Files.isRegularFile(path)) {
+            return null;
+        }
+
+        try {
+            final var catalog = mapper.readValue(path.toFile(), InstanceTypeCatalog.class);
+            if (isOutdated(catalog)) {
+                log.info("Instance type snapshot {} has been written by an older version, reload it", path);
+                return null;
+            }
+            return catalog;
+        } catch (IOException e) {
+            log.warn("Unable to read instance type snapshot {}", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the catalog lacks zone IDs or architectures, which older versions did not record; the sizer
+     * would otherwise find no candidates at all.
+     */
+    private static boolean isOutdated(InstanceTypeCatalog catalog) {
+        return !catalog.getTypes().isEmpty() && (catalog.getZoneIds().isEmpty()
+                || catalog.getTypes().values().stream().anyMatch(t -> t.getArchitectures().isEmpty()));
+    }
+
+    private void writeSnapshot(InstanceTypeCatalog catalog) {
+        final var path = snapshotPath(catalog.getRegion());
+        if (path == null) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(path.getParent());
+            final var temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            mapper.writeValue(temp.toFile(), catalog);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to write instance type snapshot {}", path, e);
         }
+    }
+
+    @Nullable
+    private Path snapshotPath(String region) {
+        final var dir = properties.getSnapshotDir();
+        return dir == null || dir.isEmpty() ? null : Paths.get(dir, "instance-types-" + region + ".json");
+    }
 
-        return typeSet.contains(type) ? type : defaultType;
+    /**
+     * A catalog of a region, with the credential it has been loaded with.
+     */
+    private static class Slot {
+        private final CompletableFuture<InstanceTypeCatalog> catalog;
+        private final Credential credential;
+        private volatile long failedAt;
+
+        Slot(CompletableFuture<InstanceTypeCatalog> catalog, @Nullable Credential credential) {
+            this.catalog = catalog;
+            this.credential = credential;
+        }
     }
 }
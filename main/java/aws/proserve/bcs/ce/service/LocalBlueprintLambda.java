@@ -0,0 +1,114 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.service;
+
+import com.amazonaws.services.lambda.AbstractAWSLambda;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.amazonaws.services.lambda.model.ResourceNotFoundException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A local stand-in of the blueprint functions for tests: both {@link BlueprintFunction#FUNCTION_NAME} and
+ * {@link BlueprintFunction#BATCH_FUNCTION_NAME} are answered in-process by the given handler, which maps one payload
+ * to the blueprint JSON. A handler throwing an exception yields a function error. Other functions are not found.
+ * <p>
+ * Supplied as the {@link com.amazonaws.services.lambda.AWSLambda} bean under the <code>local-lambda</code> profile,
+ * with {@link #echo(ObjectMapper)} as handler.
+ */
+public class LocalBlueprintLambda extends AbstractAWSLambda {
+    private final ObjectMapper mapper;
+    private final Function<Map<String, Object>, String> handler;
+    private final boolean batchDeployed;
+    private final AtomicInteger invocations = new AtomicInteger();
+
+    public LocalBlueprintLambda(
+            ObjectMapper mapper,
+            Function<Map<String, Object>, String> handler,
+            boolean batchDeployed) {
+        this.mapper = mapper;
+        this.handler = handler;
+        this.batchDeployed = batchDeployed;
+    }
+
+    @Override
+    public InvokeResult invoke(InvokeRequest request) {
+        invocations.incrementAndGet();
+        final var payload = StandardCharsets.UTF_8.decode(request.getPayload().duplicate()).toString();
+        try {
+            if (BlueprintFunction.FUNCTION_NAME.equals(request.getFunctionName())) {
+                return result(handler.apply(toMap(mapper.readTree(payload))));
+            }
+
+            if (batchDeployed && BlueprintFunction.BATCH_FUNCTION_NAME.equals(request.getFunctionName())) {
+                final var results = mapper.createArrayNode();
+                for (var item : mapper.readTree(payload).path("items")) {
+                    final var result = results.addObject().put("machineId", item.path("machineId").asText());
+                    try {
+                        result.set("blueprint", mapper.readTree(handler.apply(toMap(item))));
+                    } catch (RuntimeException e) {
+                        result.put("errorMessage", String.valueOf(e.getMessage()));
+                    }
+                }
+                return result(mapper.writeValueAsString(mapper.createObjectNode().set("results", results)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            return error(e);
+        }
+
+        throw new ResourceNotFoundException("Function not found: " + request.getFunctionName());
+    }
+
+    /**
+     * @return a stand-in with the batch function deployed, which answers each payload with itself as blueprint.
+     */
+    public static LocalBlueprintLambda echo(ObjectMapper mapper) {
+        return new LocalBlueprintLambda(mapper, payload -> {
+            try {
+                return mapper.writeValueAsString(payload);
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, true);
+    }
+
+    /**
+     * @return number of invocations, including the failed ones.
+     */
+    public int getInvocations() {
+        return invocations.get();
+    }
+
+    private Map<String, Object> toMap(JsonNode node) {
+        return mapper.convertValue(node, Map.class);
+    }
+
+    private InvokeResult error(RuntimeException e) {
+        try {
+            return result(mapper.writeValueAsString(mapper.createObjectNode()
+                    .put("errorMessage", String.valueOf(e.getMessage()))))
+                    .withFunctionError("Unhandled");
+        } catch (JsonProcessingException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private InvokeResult result(String output) {
+        return new InvokeResult()
+                .withStatusCode(200)
+                .withPayload(ByteBuffer.wrap(output.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,22 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.service;
+
+import aws.proserve.bcs.dr.project.Project;
+
+/**
+ * Published after machines of a project have been launched, so that cached views of the target account can be
+ * refreshed.
+ */
+public class MachinesLaunchedEvent {
+    private final Project project;
+
+    MachinesLaunchedEvent(Project project) {
+        this.project = project;
+    }
+
+    public Project getProject() {
+        return project;
+    }
+}
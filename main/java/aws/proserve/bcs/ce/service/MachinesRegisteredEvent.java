@@ -0,0 +1,22 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.service;
+
+import aws.proserve.bcs.dr.project.Project;
+
+/**
+ * Published after agents have been installed on instances of a project, which registers them as CloudEndure machines,
+ * so that cached machine lists can be refreshed.
+ */
+public class MachinesRegisteredEvent {
+    private final Project project;
+
+    MachinesRegisteredEvent(Project project) {
+        this.project = project;
+    }
+
+    public Project getProject() {
+        return project;
+    }
+}
@@ -0,0 +1,11 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.service;
+
+/**
+ * Published after a CloudEndure project has been created or deleted, so that cached project and machine lists can be
+ * refreshed.
+ */
+public class ProjectsChangedEvent {
+}
@@ -0,0 +1,203 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.service;
+
+import aws.proserve.bcs.ce.config.CloudEndureProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.Nullable;
+import javax.inject.Named;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the results of the <code>find*</code> lookups of the CloudEndure API services, with a time to live per
+ * service. Any other public method of a service is taken as a mutation and drops the cached results of that service;
+ * machines launched or registered through Lambda drop the cached machines, and projects created or deleted through the
+ * state machines drop the cached projects and machines.
+ * <p>
+ * Runs outside {@link SessionAspect}, so a cached result needs no session. Results are kept as JSON and read back on
+ * each hit, since callers modify them. Only lookups whose arguments are plain values are cached, at most
+ * {@link #MAX_ENTRIES} of them, least recently used first out; expired entries are purged periodically.
+ * <p>
+ * Each invalidation advances a generation of the service, a lookup which started before it does not cache its result.
+ */
+@Named
+@Aspect
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ResponseCacheAspect {
+    static final int MAX_ENTRIES = 1_000;
+    static final long PURGE_INTERVAL_MILLIS = 60 * 1000;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ObjectMapper mapper;
+    private final Map<String, Duration> ttls;
+
+    // guarded by entries
+    private final Map<String, Long> generations = new HashMap<>();
+
+    // guarded by itself
+    private final Map<List<Object>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    ResponseCacheAspect(ObjectMapper mapper, CloudEndureProperties properties) {
+        this.mapper = mapper;
+        final var cache = properties.getCache();
+        this.ttls = Map.of(
+                CredentialService.class.getSimpleName(), cache.getCredentials(),
+                RegionService.class.getSimpleName(), cache.getRegions(),
+                LicenseService.class.getSimpleName(), cache.getLicenses(),
+                ProjectService.class.getSimpleName(), cache.getProjects(),
+                MachineService.class.getSimpleName(), cache.getMachines());
+    }
+
+    @Pointcut("within(aws.proserve.bcs.ce.service.CredentialService)"
+            + " || within(aws.proserve.bcs.ce.service.RegionService)"
+            + " || within(aws.proserve.bcs.ce.service.LicenseService)"
+            + " || within(aws.proserve.bcs.ce.service.ProjectService)"
+            + " || within(aws.proserve.bcs.ce.service.MachineService)")
+    void apiServices() {
+    }
+
+    /**
+     * Audit logs grow all the time and are never cached.
+     */
+    @Pointcut("execution(public * find*(..)) && !execution(* findAllAuditLogs(..))")
+    void lookups() {
+    }
+
+    @Around("apiServices() && lookups()")
+    public Object cache(ProceedingJoinPoint joinPoint) throws Throwable {
+        final var service = joinPoint.getSignature().getDeclaringType().getSimpleName();
+        final var ttl = ttls.get(service);
+        if (ttl == null || !Arrays.stream(joinPoint.getArgs()).allMatch(ResponseCacheAspect::isValue)) {
+            return joinPoint.proceed();
+        }
+
+        final var key = Arrays.<Object>asList(
+                service, joinPoint.getSignature().getName(), Arrays.asList(joinPoint.getArgs()));
+        final var type = mapper.getTypeFactory().constructType(
+                ((MethodSignature) joinPoint.getSignature()).getMethod().getGenericReturnType());
+
+        final Entry entry;
+        final long generation;
+        synchronized (entries) {
+            entry = entries.get(key);
+            generation = generations.getOrDefault(service, 0L);
+        }
+        if (entry != null && !entry.isExpired()) {
+            return mapper.readValue(entry.json, type);
+        }
+
+        final var value = joinPoint.proceed();
+        final byte[] json;
+        try {
+            json = mapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            log.warn("Unable to cache result of {}.{}", service, joinPoint.getSignature().getName(), e);
+            return value;
+        }
+
+        synchronized (entries) {
+            if (generations.getOrDefault(service, 0L) == generation) {
+                entries.put(key, new Entry(service, json, System.currentTimeMillis() + ttl.toMillis()));
+            }
+        }
+        return value;
+    }
+
+    @Scheduled(initialDelay = PURGE_INTERVAL_MILLIS, fixedDelay = PURGE_INTERVAL_MILLIS)
+    void purge() {
+        synchronized (entries) {
+            entries.values().removeIf(Entry::isExpired);
+        }
+    }
+
+    /**
+     * Any public method but a <code>find*</code> one, audit log reads are not cached but do not change anything either.
+     */
+    @Pointcut("execution(public * *(..)) && !execution(public * find*(..))")
+    void mutations() {
+    }
+
+    @AfterReturning("apiServices() && mutations()")
+    public void invalidate(JoinPoint joinPoint) {
+        invalidate(joinPoint.getSignature().getDeclaringType().getSimpleName());
+    }
+
+    @EventListener
+    void onMachinesLaunched(MachinesLaunchedEvent event) {
+        invalidate(MachineService.class.getSimpleName());
+    }
+
+    @EventListener
+    void onMachinesRegistered(MachinesRegisteredEvent event) {
+        invalidate(MachineService.class.getSimpleName());
+    }
+
+    @EventListener
+    void onProjectsChanged(ProjectsChangedEvent event) {
+        invalidate(ProjectService.class.getSimpleName());
+        invalidate(MachineService.class.getSimpleName());
+    }
+
+    private void invalidate(String service) {
+        log.debug("Drop cached results of {}", service);
+        synchronized (entries) {
+            generations.merge(service, 1L, Long::sum);
+            entries.values().removeIf(e -> e.service.equals(service));
+        }
+    }
+
+    /**
+     * @return whether the argument compares by value, so that it can be part of a key.
+     */
+    private static boolean isValue(@Nullable Object arg) {
+        return arg == null
+                || arg instanceof String
+                || arg instanceof Number
+                || arg instanceof Boolean
+                || arg instanceof Character
+                || arg instanceof Enum;
+    }
+
+    private static class Entry {
+        private final String service;
+        private final byte[] json;
+        private final long expiresAt;
+
+        Entry(String service, byte[] json, long expiresAt) {
+            this.service = service;
+            this.json = json;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+}
@@ -6,33 +6,39 @@ package aws.proserve.bcs.ce.service;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import javax.inject.Named;
 
 @Named
 @Aspect
 public class SessionAspect {
-    private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private SessionService sessionService;
+    private final SessionRefresher sessionRefresher;
 
-    SessionAspect(SessionService sessionService) {
-        this.sessionService = sessionService;
+    SessionAspect(SessionRefresher sessionRefresher) {
+        this.sessionRefresher = sessionRefresher;
     }
 
-    @Around("execution(public * aws.proserve.bcs.ce.service.*Service.*(..))")
+    /**
+     * Only the services which call the CloudEndure API, the services composing them are covered through them.
+     */
+    @Around("execution(public * *(..)) && (within(aws.proserve.bcs.ce.service.BlueprintService)"
+            + " || within(aws.proserve.bcs.ce.service.CredentialService)"
+            + " || within(aws.proserve.bcs.ce.service.LicenseService)"
+            + " || within(aws.proserve.bcs.ce.service.MachineService)"
+            + " || within(aws.proserve.bcs.ce.service.ProjectService)"
+            + " || within(aws.proserve.bcs.ce.service.RegionService))")
     public Object loginSession(ProceedingJoinPoint joinPoint) throws Throwable {
-        if (joinPoint.getSignature().getName().equals("login")) {
-            return joinPoint.proceed();
-        }
-
+        sessionRefresher.refreshIfStale();
+        final var generation = sessionRefresher.getGeneration();
         try {
             return joinPoint.proceed();
-        } catch (Exception e) { // try to login in case the session expires.
-            final var account = sessionService.login();
-            log.info("Login for {}", account.getUsername());
+        } catch (Exception e) { // login again only if the session has been rejected.
+            if (!SessionRefresher.isAuthenticationFailure(e)) {
+                throw e;
+            }
+
+            sessionRefresher.refresh(generation);
             return joinPoint.proceed();
         }
     }
@@ -0,0 +1,124 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.service;
+
+import aws.proserve.bcs.ce.dto.ImmutableSessionMetrics;
+import aws.proserve.bcs.ce.dto.SessionMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.RestClientResponseException;
+
+import javax.inject.Named;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs in to CloudEndure again ahead of the session expiry, or after an authentication failure. Only one thread logs
+ * in at a time; the threads which observed the same session wait and then use the new one. If the login fails, those
+ * threads fail with the same cause, and no login is tried again for the session for {@link #RETRY_AFTER}.
+ */
+@Named
+public class SessionRefresher {
+    static final Duration REFRESH_AFTER = Duration.ofMinutes(20);
+    static final Duration RETRY_AFTER = Duration.ofMinutes(1);
+
+    private static final int UNAUTHORIZED = 401;
+    private static final int AUTHENTICATION_TIMEOUT = 419;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final SessionService sessionService;
+
+    private final AtomicLong logins = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    private volatile long generation;
+    private volatile long loggedInAt;
+
+    // guarded by this
+    private RuntimeException failure;
+    private long failedAt;
+
+    SessionRefresher(SessionService sessionService) {
+        this.sessionService = sessionService;
+    }
+
+    /**
+     * @return identifies the current session, to be passed to {@link #refresh(long)}.
+     */
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * A failed proactive login is only logged, the call itself decides whether the session is still usable.
+     */
+    void refreshIfStale() {
+        final var observed = generation;
+        if (System.currentTimeMillis() - loggedInAt >= REFRESH_AFTER.toMillis()) {
+            try {
+                refresh(observed);
+            } catch (RuntimeException e) {
+                log.warn("Unable to refresh the session ahead of expiry", e);
+            }
+        }
+    }
+
+    /**
+     * Logs in unless another thread has already replaced the observed session, or the login for it has just failed.
+     */
+    synchronized void refresh(long observed) {
+        if (generation != observed) {
+            return;
+        }
+        if (failure != null && System.currentTimeMillis() - failedAt < RETRY_AFTER.toMillis()) {
+            throw new IllegalStateException("Login failed less than " + RETRY_AFTER + " ago", failure);
+        }
+
+        final var start = System.currentTimeMillis();
+        try {
+            final var account = sessionService.login();
+            log.info("Login for {}", account.getUsername());
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            failure = e;
+            failedAt = System.currentTimeMillis();
+            loggedInAt = System.currentTimeMillis() - REFRESH_AFTER.toMillis() + RETRY_AFTER.toMillis();
+            throw e;
+        } finally {
+            final var millis = System.currentTimeMillis() - start;
+            logins.incrementAndGet();
+            totalMillis.addAndGet(millis);
+            maxMillis.accumulateAndGet(millis, Math::max);
+        }
+
+        failure = null;
+        loggedInAt = System.currentTimeMillis();
+        generation = observed + 1;
+    }
+
+    public SessionMetrics getMetrics() {
+        return ImmutableSessionMetrics.builder()
+                .logins(logins.get())
+                .failures(failures.get())
+                .totalMillis(totalMillis.get())
+                .maxMillis(maxMillis.get())
+                .build();
+    }
+
+    /**
+     * @return whether CloudEndure rejected the session, anywhere in the cause chain.
+     */
+    static boolean isAuthenticationFailure(Throwable e) {
+        for (var cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RestClientResponseException) {
+                final var status = ((RestClientResponseException) cause).getRawStatusCode();
+                return status == UNAUTHORIZED || status == AUTHENTICATION_TIMEOUT;
+            }
+        }
+        return false;
+    }
+}
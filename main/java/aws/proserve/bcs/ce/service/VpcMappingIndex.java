@@ -0,0 +1,178 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.service;
+
+import aws.proserve.bcs.ce.dto.ImmutableVpcMappingMetrics;
+import aws.proserve.bcs.ce.dto.VpcMappingMetrics;
+import aws.proserve.bcs.dr.dynamo.DynamoConstants;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.spec.ScanSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Named;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bidirectional, in-memory copy of {@link DynamoConstants#TABLE_VPC}, which maps source resource IDs to target
+ * resource IDs, scoped by source and target region.
+ * <p>
+ * A lookup tries the rows of the region pair first, then the rows of the reversed pair read backwards, since rows
+ * written while cutting back carry the regions of the cutback, and finally the rows without regions.
+ * <p>
+ * The table is read with one projected scan and kept for {@link #TTL}. A missing ID triggers an early reload, at most
+ * once per {@link #MIN_RELOAD_INTERVAL}, since mappings are added while VPCs are replicated.
+ */
+@Named
+public class VpcMappingIndex {
+    static final Duration TTL = Duration.ofMinutes(5);
+    static final Duration MIN_RELOAD_INTERVAL = Duration.ofSeconds(10);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DynamoDB dynamoDB;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    private volatile Map<String, Mappings> regionPairs = Map.of();
+    private volatile Mappings unscoped = Mappings.EMPTY;
+    private volatile long loadedAt;
+
+    VpcMappingIndex(DynamoDB dynamoDB) {
+        this.dynamoDB = dynamoDB;
+    }
+
+    @Nullable
+    String findTargetId(String sourceRegion, String targetRegion, String sourceId) {
+        return find(sourceRegion, targetRegion, sourceId, true);
+    }
+
+    @Nullable
+    String findSourceId(String sourceRegion, String targetRegion, String targetId) {
+        return find(sourceRegion, targetRegion, targetId, false);
+    }
+
+    /**
+     * @return an unmodifiable map from source ID to target ID of the region pair, including the reversed rows and the
+     * rows without regions.
+     */
+    Map<String, String> getTargetIds(String sourceRegion, String targetRegion) {
+        final var mappings = get(sourceRegion, targetRegion);
+        final var targetIds = new HashMap<>(unscoped.targetIds);
+        targetIds.putAll(regionPairs.getOrDefault(key(targetRegion, sourceRegion), Mappings.EMPTY).sourceIds);
+        targetIds.putAll(mappings.targetIds);
+        return Map.copyOf(targetIds);
+    }
+
+    public VpcMappingMetrics getMetrics() {
+        final var pairs = regionPairs;
+        return ImmutableVpcMappingMetrics.builder()
+                .regionPairs(pairs.size())
+                .size(pairs.values().stream().mapToInt(m -> m.targetIds.size()).sum() + unscoped.targetIds.size())
+                .hits(hits.get())
+                .misses(misses.get())
+                .loads(loads.get())
+                .build();
+    }
+
+    @Nullable
+    private String find(String sourceRegion, String targetRegion, String id, boolean forward) {
+        get(sourceRegion, targetRegion);
+        var result = lookup(sourceRegion, targetRegion, id, forward);
+        if (result != null) {
+            hits.incrementAndGet();
+            return result;
+        }
+
+        misses.incrementAndGet();
+        reload(MIN_RELOAD_INTERVAL);
+        return lookup(sourceRegion, targetRegion, id, forward);
+    }
+
+    @Nullable
+    private String lookup(String sourceRegion, String targetRegion, String id, boolean forward) {
+        final var pair = regionPairs.getOrDefault(key(sourceRegion, targetRegion), Mappings.EMPTY);
+        var result = (forward ? pair.targetIds : pair.sourceIds).get(id);
+        if (result == null) {
+            final var reversed = regionPairs.getOrDefault(key(targetRegion, sourceRegion), Mappings.EMPTY);
+            result = (forward ? reversed.sourceIds : reversed.targetIds).get(id);
+        }
+        if (result == null) {
+            result = (forward ? unscoped.targetIds : unscoped.sourceIds).get(id);
+        }
+        return result;
+    }
+
+    private Mappings get(String sourceRegion, String targetRegion) {
+        if (System.currentTimeMillis() - loadedAt >= TTL.toMillis()) {
+            reload(TTL);
+        }
+        return regionPairs.getOrDefault(key(sourceRegion, targetRegion), Mappings.EMPTY);
+    }
+
+    private synchronized void reload(Duration age) {
+        if (System.currentTimeMillis() - loadedAt < age.toMillis()) {
+            return; // reloaded by another thread meanwhile
+        }
+
+        final var targetIds = new HashMap<String, Map<String, String>>();
+        final var unscopedIds = new HashMap<String, String>();
+        var count = 0;
+        for (var item : dynamoDB.getTable(DynamoConstants.TABLE_VPC).scan(new ScanSpec().withAttributesToGet(
+                DynamoConstants.KEY_ID,
+                DynamoConstants.KEY_TARGET_ID,
+                DynamoConstants.KEY_SOURCE_REGION,
+                DynamoConstants.KEY_TARGET_REGION))) {
+            final var targetId = item.getString(DynamoConstants.KEY_TARGET_ID);
+            if (targetId == null) {
+                continue;
+            }
+
+            final var sourceRegion = item.getString(DynamoConstants.KEY_SOURCE_REGION);
+            final var targetRegion = item.getString(DynamoConstants.KEY_TARGET_REGION);
+            if (sourceRegion == null || targetRegion == null) {
+                unscopedIds.put(item.getString(DynamoConstants.KEY_ID), targetId);
+            } else {
+                targetIds.computeIfAbsent(key(sourceRegion, targetRegion), k -> new HashMap<>())
+                        .put(item.getString(DynamoConstants.KEY_ID), targetId);
+            }
+            count++;
+        }
+
+        final var pairs = new HashMap<String, Mappings>();
+        targetIds.forEach((k, v) -> pairs.put(k, new Mappings(v)));
+
+        log.debug("Loaded {} VPC mappings of {} region pairs, {} without regions", count, pairs.size(),
+                unscopedIds.size());
+        regionPairs = Map.copyOf(pairs);
+        unscoped = new Mappings(unscopedIds);
+        loadedAt = System.currentTimeMillis();
+        loads.incrementAndGet();
+    }
+
+    private static String key(String sourceRegion, String targetRegion) {
+        return sourceRegion + "/" + targetRegion;
+    }
+
+    private static class Mappings {
+        static final Mappings EMPTY = new Mappings(Map.of());
+
+        private final Map<String, String> targetIds;
+        private final Map<String, String> sourceIds;
+
+        Mappings(Map<String, String> targetIds) {
+            this.targetIds = Map.copyOf(targetIds);
+
+            final var sourceIds = new HashMap<String, String>();
+            targetIds.forEach((source, target) -> sourceIds.put(target, source));
+            this.sourceIds = Map.copyOf(sourceIds);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.ce.service;
+
+import org.springframework.beans.factory.DisposableBean;
+
+import javax.inject.Named;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * A bounded pool for blocking AWS calls that can run side by side.
+ *
+ * @apiNote tasks running on this pool must not wait for other tasks of this pool, otherwise the pool may starve.
+ */
+@Named
+public class WorkerPool implements DisposableBean {
+    static final int THREADS = 16;
+
+    private final AtomicInteger counter = new AtomicInteger();
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+        final var thread = new Thread(runnable, "ce-worker-" + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, executor);
+    }
+
+    /**
+     * @return the results in the order of the futures, rethrowing the first failure unwrapped.
+     */
+    public static <T> List<T> joinAll(List<CompletableFuture<T>> futures) {
+        try {
+            return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } catch (CompletionException e) {
+            futures.forEach(f -> f.cancel(false));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until all futures complete. If any of them fails, or the timeout elapses first, all of them are cancelled
+     * so that no dependent stage starts any more.
+     * <p>
+     * Cancelling a {@link CompletableFuture} does not interrupt a task that is already running, so such a task has to
+     * be told to stop by the caller, and any resource it still acquires has to be released by the caller as well.
+     */
+    public static void awaitAll(Duration timeout, CompletableFuture<?>... futures) {
+        final var failure = new CompletableFuture<Void>();
+        for (var future : futures) {
+            future.whenComplete((result, e) -> {
+                if (e != null) {
+                    failure.completeExceptionally(e);
+                }
+            });
+        }
+
+        try {
+            CompletableFuture.anyOf(CompletableFuture.allOf(futures), failure)
+                    .get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for tasks", e);
+        } catch (TimeoutException e) {
+            cancelAll(futures);
+            throw new IllegalStateException("Tasks did not complete within " + timeout, e);
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            var cause = e.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static void cancelAll(CompletableFuture<?>... futures) {
+        for (var future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
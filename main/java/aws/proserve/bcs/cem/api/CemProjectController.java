@@ -5,15 +5,17 @@ package aws.proserve.bcs.cem.api;
 
 import aws.proserve.bcs.ce.CloudEndureAuditLog;
 import aws.proserve.bcs.ce.CloudEndureMachine;
+import aws.proserve.bcs.ce.dto.MachineResult;
 import aws.proserve.bcs.ce.service.CloudEndureBlueprintService;
 import aws.proserve.bcs.ce.service.CloudEndureProjectService;
 import aws.proserve.bcs.ce.service.ProjectService;
+import aws.proserve.bcs.cem.dto.BlueprintPage;
 import aws.proserve.bcs.cem.dto.ConfigureBlueprintRequest;
+import aws.proserve.bcs.cem.dto.LoadBlueprintsResult;
 import aws.proserve.bcs.cem.dto.SelectSecurityGroupRequest;
 import aws.proserve.bcs.cem.dto.SetBlueprintRequest;
 import aws.proserve.bcs.cem.service.CemService;
 import aws.proserve.bcs.cem.CemBlueprint;
-import aws.proserve.bcs.dr.dto.Response;
 import aws.proserve.bcs.dr.project.ProjectFinder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +25,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 
@@ -60,42 +63,66 @@ class CemProjectController {
     }
 
     /**
-     * Read machine information from CloudEndure and populate the CEM blueprint table. New machines will be added.
+     * @param cursor the cursor of the previous page, omitted for the first page.
+     * @return bad request if the cursor has not been returned by a previous page.
+     */
+    @GetMapping(value = "/{projectId}/blueprints", params = "pageSize")
+    ResponseEntity<BlueprintPage> getBlueprints(
+            @PathVariable String projectId,
+            @RequestParam int pageSize,
+            @RequestParam(required = false) String cursor) {
+        final var project = projectFinder.findOne(projectId);
+        try {
+            return ResponseEntity.ok(cemService.getBlueprints(project, pageSize, cursor));
+        } catch (IllegalArgumentException e) {
+            log.warn("Reject blueprints page of {}: {}", projectId, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Read machine information from CloudEndure and populate the CEM blueprint table. New machines will be added,
+     * blueprints of removed machines will be deleted.
      *
      * @param projectId DRP CEM project ID.
      */
     @PutMapping("/{projectId}/blueprints")
-    ResponseEntity<Response> loadBlueprints(@PathVariable String projectId) {
+    ResponseEntity<LoadBlueprintsResult> loadBlueprints(@PathVariable String projectId) {
         final var project = projectFinder.findOne(projectId);
-        cemService.loadBlueprints(project);
-        return ResponseEntity.accepted().body(Response.SUCCESS);
+        return ResponseEntity.accepted().body(cemService.loadBlueprints(project));
     }
 
+    /**
+     * @return the outcome for each machine.
+     */
     @PutMapping("/{projectId}/setBlueprint")
-    ResponseEntity<Response> setBlueprint(
+    ResponseEntity<MachineResult[]> setBlueprint(
             @PathVariable String projectId,
             @RequestBody SetBlueprintRequest request) {
         final var project = projectFinder.findOne(projectId);
-        cemService.setBlueprint(project, request);
-        return ResponseEntity.accepted().body(Response.SUCCESS);
+        return ResponseEntity.accepted().body(cemService.setBlueprint(project, request));
     }
 
+    /**
+     * @return the outcome for each machine.
+     */
     @PutMapping("/{projectId}/selectSecurityGroup")
-    ResponseEntity<Response> selectSecurityGroup(
+    ResponseEntity<MachineResult[]> selectSecurityGroup(
             @PathVariable String projectId,
             @RequestBody SelectSecurityGroupRequest request) {
         final var project = projectFinder.findOne(projectId);
-        cemService.selectSecurityGroup(project, request);
-        return ResponseEntity.accepted().body(Response.SUCCESS);
+        return ResponseEntity.accepted().body(cemService.selectSecurityGroup(project, request));
     }
 
+    /**
+     * @return the outcome for each machine.
+     */
     @PutMapping("/{projectId}/configureBlueprint")
-    ResponseEntity<Response> configureBlueprint(
+    ResponseEntity<MachineResult[]> configureBlueprint(
             @PathVariable String projectId,
             @RequestBody ConfigureBlueprintRequest request) {
         final var project = projectFinder.findOne(projectId);
-        cemService.configureBlueprint(project, request);
-        return ResponseEntity.accepted().body(Response.SUCCESS);
+        return ResponseEntity.accepted().body(cemService.configureBlueprint(project, request));
     }
 
     @GetMapping("/{projectId}/auditLogs")
@@ -0,0 +1,29 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.cem.dto;
+
+
+import aws.proserve.bcs.cem.CemBlueprint;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+import javax.annotation.Nullable;
+
+/**
+ * To GWT.
+ */
+@JsonSerialize(as = ImmutableBlueprintPage.class)
+@JsonDeserialize(as = ImmutableBlueprintPage.class)
+@Value.Immutable
+public interface BlueprintPage {
+
+    CemBlueprint[] getBlueprints();
+
+    /**
+     * @return the opaque cursor of the next page, {@code null} for the last page.
+     */
+    @Nullable
+    String getCursor();
+}
@@ -0,0 +1,31 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.cem.dto;
+
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+/**
+ * To GWT. The number of blueprints touched while synchronizing them with the CloudEndure machines.
+ */
+@JsonSerialize(as = ImmutableLoadBlueprintsResult.class)
+@JsonDeserialize(as = ImmutableLoadBlueprintsResult.class)
+@Value.Immutable
+public interface LoadBlueprintsResult {
+
+    int getAdded();
+
+    int getUpdated();
+
+    int getUnchanged();
+
+    int getRemoved();
+
+    /**
+     * @return blueprints of missing machines which have been kept, since the machine list looked incomplete.
+     */
+    int getOrphaned();
+}
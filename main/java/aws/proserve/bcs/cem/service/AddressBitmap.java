@@ -0,0 +1,81 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.cem.service;
+
+import java.util.BitSet;
+
+/**
+ * Tracks the used IPv4 addresses of one subnet, one bit per address.
+ * <p>
+ * AWS reserves the first four addresses and the last address of every subnet, they are never allocated.
+ */
+class AddressBitmap {
+    private static final int RESERVED_HEAD = 4;
+
+    private final int network;
+    private final int size;
+    private final BitSet used;
+
+    AddressBitmap(String cidrBlock) {
+        final var slash = cidrBlock.indexOf('/');
+        if (slash == -1) {
+            throw new IllegalArgumentException("Invalid CIDR block " + cidrBlock);
+        }
+
+        final var prefix = Integer.parseInt(cidrBlock.substring(slash + 1));
+        if (prefix < 16 || prefix > 28) { // the range of VPC subnets
+            throw new IllegalArgumentException("Invalid subnet prefix " + cidrBlock);
+        }
+
+        this.size = 1 << (32 - prefix);
+        this.network = toInt(cidrBlock.substring(0, slash)) & -size;
+        this.used = new BitSet(size);
+        used.set(0, RESERVED_HEAD);
+        used.set(size - 1);
+    }
+
+    /**
+     * Marks the address as used, addresses outside this subnet are ignored.
+     */
+    void markUsed(int address) {
+        final var offset = address - network;
+        if (offset >= 0 && offset < size) {
+            used.set(offset);
+        }
+    }
+
+    /**
+     * @return the lowest free address, which is marked as used, or {@code null} if the subnet is exhausted.
+     */
+    String next() {
+        final var offset = used.nextClearBit(0);
+        if (offset >= size) {
+            return null;
+        }
+
+        used.set(offset);
+        return toString(network + offset);
+    }
+
+    static int toInt(String address) {
+        final var parts = address.split("\\.");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Invalid IPv4 address " + address);
+        }
+
+        var value = 0;
+        for (var part : parts) {
+            final var octet = Integer.parseInt(part);
+            if (octet < 0 || octet > 255) {
+                throw new IllegalArgumentException("Invalid IPv4 address " + address);
+            }
+            value = value << 8 | octet;
+        }
+        return value;
+    }
+
+    static String toString(int address) {
+        return (address >>> 24) + "." + (address >>> 16 & 0xff) + "." + (address >>> 8 & 0xff) + "." + (address & 0xff);
+    }
+}
@@ -3,146 +3,170 @@
 
 package aws.proserve.bcs.cem.service;
 
+import aws.proserve.bcs.ce.service.AwsClientRegistry;
 import aws.proserve.bcs.dr.aws.AwsSecurityGroup;
-import aws.proserve.bcs.dr.ce.CloudEndureConstants;
 import aws.proserve.bcs.dr.project.Project;
-import aws.proserve.bcs.dr.vpc.Cidr;
-import aws.proserve.bcs.dr.vpc.Filters;
-import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
-import com.amazonaws.services.ec2.model.DescribeNetworkInterfacesRequest;
-import com.amazonaws.services.ec2.model.DescribeNetworkInterfacesResult;
-import com.amazonaws.services.ec2.model.DescribeRouteTablesRequest;
-import com.amazonaws.services.ec2.model.DescribeSecurityGroupsRequest;
-import com.amazonaws.services.ec2.model.DescribeSecurityGroupsResult;
-import com.amazonaws.services.ec2.model.DescribeSubnetsRequest;
-import com.amazonaws.services.ec2.model.DescribeSubnetsResult;
 import com.amazonaws.services.ec2.model.Subnet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Named;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 
 @Named
 class CemNetworkService {
+    static final Duration TOPOLOGY_TTL = Duration.ofMinutes(5);
+    static final Duration SECURITY_GROUP_TTL = Duration.ofMinutes(2);
     private final Logger log = LoggerFactory.getLogger(getClass());
-    private final Random rnd = new Random(System.currentTimeMillis());
+
+    private final AwsClientRegistry clientRegistry;
+    private final IpLeaseStore leaseStore;
+    private final EniAddressIndex addressIndex;
+    private final Map<String, VpcTopology> topologies = new ConcurrentHashMap<>();
+    private final Map<String, SecurityGroupIndex> securityGroupIndexes = new ConcurrentHashMap<>();
+
+    CemNetworkService(
+            AwsClientRegistry clientRegistry,
+            IpLeaseStore leaseStore,
+            EniAddressIndex addressIndex) {
+        this.clientRegistry = clientRegistry;
+        this.leaseStore = leaseStore;
+        this.addressIndex = addressIndex;
+    }
 
     /**
      * @return A map from machine name to security groups.
      */
     Map<String, List<AwsSecurityGroup>> findSecurityGroups(Project project) {
-        final var ec2 = AmazonEC2ClientBuilder.standard()
-                .withRegion(project.getTargetRegion().toAwsRegion())
-                .build();
-
-        final var pairs = new ArrayList<Object[]>();
+        final var region = project.getTargetRegion().getName();
         final var vpcId = project.getCemProject().getFirst().getVpcId();
-        final var describeRequest = new DescribeSecurityGroupsRequest()
-                .withFilters(Filters.vpcId(vpcId));
-        DescribeSecurityGroupsResult result;
-        do {
-            result = ec2.describeSecurityGroups(describeRequest);
-            describeRequest.setNextToken(result.getNextToken());
-
-            for (var group : result.getSecurityGroups()) {
-                pairs.addAll(group.getTags().stream()
-                        .filter(t -> t.getKey().equals(CloudEndureConstants.TAG_MACHINE))
-                        .map(t -> t.getValue().split(","))
-                        .flatMap(Arrays::stream)
-                        .map(s -> new Object[]{s, new AwsSecurityGroup(group.getGroupId(), group.getGroupName())})
-                        .collect(Collectors.toList()));
-            }
-        } while (result.getNextToken() != null);
-        return pairs.stream().collect(Collectors.groupingBy(s -> (String) s[0],
-                Collectors.mapping(s -> (AwsSecurityGroup) s[1], Collectors.toList())));
+        return securityGroupIndexes
+                .computeIfAbsent(region + '/' + vpcId, k -> new SecurityGroupIndex(vpcId, SECURITY_GROUP_TTL.toMillis()))
+                .get(clientRegistry.ec2(region, null));
     }
 
     Subnet findSubnet(Project project, boolean publicSubnet) {
-        final var ec2 = AmazonEC2ClientBuilder.standard()
-                .withRegion(project.getTargetRegion().toAwsRegion())
-                .build();
+        final var subnet = getTopology(project).findSubnet(publicSubnet);
+        if (subnet == null) {
+            throw new IllegalStateException("Unable to find a subnet [publicSubnet = " + publicSubnet + "]");
+        }
 
+        log.info("Found {} subnet {}", publicSubnet ? "public" : "private", subnet.getSubnetId());
+        return subnet;
+    }
+
+    VpcTopology getTopology(Project project) {
+        final var region = project.getTargetRegion().getName();
         final var vpcId = project.getCemProject().getFirst().getVpcId();
-        final var describeRequest = new DescribeSubnetsRequest().withFilters(Filters.vpcId(vpcId));
-        DescribeSubnetsResult result;
-        do {
-            result = ec2.describeSubnets(describeRequest);
-            describeRequest.setNextToken(result.getNextToken());
-
-            for (var subnet : result.getSubnets()) {
-                final var tables = ec2.describeRouteTables(new DescribeRouteTablesRequest()
-                        .withFilters(Filters.associatedSubnetId(subnet.getSubnetId()))).getRouteTables();
-                if (tables.isEmpty()) {
-                    if (!publicSubnet) { // no route table association, private subnet
-                        log.info("Found private subnet {} with empty route table", subnet.getSubnetId());
-                        return subnet;
-                    }
-                } else {
-                    boolean routeIgw = false;
-                    for (var table : tables) {
-                        for (var route : table.getRoutes()) {
-                            if (route.getGatewayId() != null && route.getGatewayId().startsWith("igw-")) { // route to IGW, public subnet
-                                routeIgw = true;
-                                if (publicSubnet) {
-                                    log.info("Found public subnet {} with IGW", subnet.getSubnetId());
-                                    return subnet;
-                                }
-                            }
-                        }
-                    }
+        return topologies.compute(region + '/' + vpcId, (key, topology) ->
+                topology == null || topology.isExpired()
+                        ? VpcTopology.load(clientRegistry.ec2(region, null), vpcId, TOPOLOGY_TTL.toMillis())
+                        : topology);
+    }
 
-                    if (!routeIgw && !publicSubnet) { // no route to IGW, private subnet
-                        log.info("Found private subnet {} with no route to IGW", subnet.getSubnetId());
-                        return subnet;
-                    }
-                }
-            }
-        } while (result.getNextToken() == null);
-        throw new IllegalStateException("Unable to find a subnet [publicSubnet = " + publicSubnet + "]");
+    List<String> findIpAddress(Project project, Subnet subnet, List<String> machineIds, Collection<String> stored) {
+        return findIpAddress(project, subnet, machineIds, stored, () -> false);
     }
 
-    private List<String> findUnusedAddress(Cidr cidr, List<String> addresses, int count) {
-        final var unused = new ArrayList<String>();
-        final var size = cidr.getSize();
-        for (int i = 0; i < size; i++) {
-            final var address = cidr.findAddress(rnd.nextInt((int) size));
-            if (addresses.contains(address)) {
-                continue;
-            }
+    /**
+     * Leases one address of the subnet to each machine. An address is a candidate if it is neither reserved by AWS,
+     * used by any network interface, nor stored in a blueprint, and it is taken only if no other blueprint holds its
+     * lease. If no address can be found for a machine, or the caller gives up meanwhile, the leases taken so far are
+     * released.
+     *
+     * @param stored    addresses stored in blueprints, which may not hold a lease yet.
+     * @param cancelled checked before each lease, as cancelling the future of a running task does not stop it.
+     * @return the addresses in the order of the machine IDs.
+     */
+    List<String> findIpAddress(
+            Project project,
+            Subnet subnet,
+            List<String> machineIds,
+            Collection<String> stored,
+            BooleanSupplier cancelled) {
+        final var ec2 = clientRegistry.ec2(project.getTargetRegion().getName(), null);
 
-            unused.add(address);
+        final var vpcId = project.getCemProject().getFirst().getVpcId();
+        final var bitmap = new AddressBitmap(subnet.getCidrBlock());
+        for (var address : addressIndex.getAddresses(ec2, vpcId, subnet.getSubnetId())) {
+            bitmap.markUsed(address);
+        }
+        for (var address : stored) {
+            bitmap.markUsed(AddressBitmap.toInt(address));
+        }
+
+        final var addresses = new ArrayList<String>(machineIds.size());
+        try {
+            for (var machineId : machineIds) {
+                if (cancelled.getAsBoolean()) {
+                    throw new CancellationException("Leasing addresses of subnet " + subnet.getSubnetId()
+                            + " has been cancelled");
+                }
 
-            if (unused.size() > count) {
-                return unused;
+                final var owner = IpLeaseStore.owner(project.getId(), machineId);
+                String address;
+                do {
+                    address = bitmap.next();
+                    if (address == null) {
+                        throw new IllegalStateException("Subnet " + subnet.getSubnetId()
+                                + " has no free address for machine " + machineId);
+                    }
+                } while (!leaseStore.lease(vpcId, address, owner));
+                addresses.add(address);
+            }
+        } catch (RuntimeException e) {
+            for (int i = 0; i < addresses.size(); i++) {
+                releaseIpAddress(project, machineIds.get(i), addresses.get(i));
             }
+            throw e;
         }
-        return unused;
+        return addresses;
+    }
+
+    /**
+     * @param addresses a map from machine ID to the address stored in its blueprint.
+     * @return the IDs of the machines whose lease is missing, about to expire, or held by another blueprint.
+     */
+    Set<String> findStaleLeases(Project project, Map<String, String> addresses) {
+        final var owners = new HashMap<String, String>();
+        final var machineIds = new HashMap<String, String>();
+        addresses.forEach((machineId, address) -> {
+            owners.put(address, IpLeaseStore.owner(project.getId(), machineId));
+            machineIds.put(address, machineId);
+        });
+
+        return leaseStore.findStale(project.getCemProject().getFirst().getVpcId(), owners).stream()
+                .map(machineIds::get)
+                .collect(Collectors.toSet());
     }
 
-    List<String> findIpAddress(Project project, Subnet subnet, int count) {
-        final var ec2 = AmazonEC2ClientBuilder.standard()
-                .withRegion(project.getTargetRegion().toAwsRegion())
-                .build();
+    /**
+     * Renews the lease of an address stored in a blueprint, which also takes the lease for blueprints created before
+     * leases existed.
+     *
+     * @return {@code false} if another blueprint holds the lease.
+     */
+    boolean renewIpAddress(Project project, String machineId, String address) {
+        final var renewed = leaseStore.lease(project.getCemProject().getFirst().getVpcId(), address,
+                IpLeaseStore.owner(project.getId(), machineId));
+        if (!renewed) {
+            log.warn("Address {} of machine [{}] is leased by another blueprint", address, machineId);
+        }
+        return renewed;
+    }
 
-        final var vpcId = project.getCemProject().getFirst().getVpcId();
-        final var addresses = new ArrayList<String>();
-        final var request = new DescribeNetworkInterfacesRequest()
-                .withFilters(Filters.vpcId(vpcId));
-        DescribeNetworkInterfacesResult describeResult;
-        do {
-            describeResult = ec2.describeNetworkInterfaces(request);
-            request.setNextToken(describeResult.getNextToken());
-
-            for (var i : describeResult.getNetworkInterfaces()) {
-                addresses.add(i.getPrivateIpAddress());
-            }
-        } while (describeResult.getNextToken() != null);
-        return findUnusedAddress(new Cidr(subnet.getCidrBlock()), addresses, count);
+    void releaseIpAddress(Project project, String machineId, String address) {
+        leaseStore.release(project.getCemProject().getFirst().getVpcId(), address,
+                IpLeaseStore.owner(project.getId(), machineId));
     }
 }
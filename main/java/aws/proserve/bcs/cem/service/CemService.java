@@ -3,18 +3,27 @@
 
 package aws.proserve.bcs.cem.service;
 
-import aws.proserve.bcs.ce.CloudEndureBlueprint;
 import aws.proserve.bcs.ce.CloudEndureDisk;
+import aws.proserve.bcs.ce.CloudEndureMachine;
+import aws.proserve.bcs.ce.dto.MachineResult;
+import aws.proserve.bcs.ce.dto.MachineResult.Status;
+import aws.proserve.bcs.ce.service.BlueprintFunction;
 import aws.proserve.bcs.ce.service.InstanceTypeService;
 import aws.proserve.bcs.ce.service.MachineService;
 import aws.proserve.bcs.ce.service.RegionService;
+import aws.proserve.bcs.ce.service.WorkerPool;
 import aws.proserve.bcs.cem.CemBlueprint;
+import aws.proserve.bcs.cem.dto.BlueprintPage;
 import aws.proserve.bcs.cem.dto.ConfigureBlueprintRequest;
 import aws.proserve.bcs.cem.dto.CreateCemProjectRequest;
+import aws.proserve.bcs.cem.dto.ImmutableBlueprintPage;
+import aws.proserve.bcs.cem.dto.ImmutableLoadBlueprintsResult;
+import aws.proserve.bcs.cem.dto.LoadBlueprintsResult;
 import aws.proserve.bcs.cem.dto.SelectSecurityGroupRequest;
 import aws.proserve.bcs.cem.dto.SetBlueprintRequest;
 import aws.proserve.bcs.dr.aws.AwsSecurityGroup;
 import aws.proserve.bcs.dr.ce.CloudEndureConstants;
+import aws.proserve.bcs.dr.cem.CemConstants;
 import aws.proserve.bcs.dr.cem.CemItem;
 import aws.proserve.bcs.dr.cem.CemProject;
 import aws.proserve.bcs.dr.project.Component;
@@ -23,44 +32,58 @@ import aws.proserve.bcs.dr.project.ProjectFinder;
 import aws.proserve.bcs.dr.project.ProjectService;
 import aws.proserve.bcs.dr.project.Region;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
 import com.amazonaws.services.ec2.model.Subnet;
 import com.amazonaws.services.ec2.model.Tag;
-import com.amazonaws.services.lambda.AWSLambda;
-import com.amazonaws.services.lambda.model.InvokeRequest;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Named;
-import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Named
 public class CemService implements ProjectService {
-    private static final int GB = 1024 * 1024 * 1024;
+    private static final int MB = 1024 * 1024;
     private static final String ECONOMY = "economy";
     private static final String BUSINESS = "business";
     private static final String CUSTOMIZED = "customized";
     private static final String T2_LARGE = "t2.large";
+    private static final int MAX_CONFLICT_RETRIES = 2;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int MAX_KEY_BYTES = 1024; // range key limit of DynamoDB
+    private static final int MAX_UNCHECKED_REMOVALS = 3;
+    private static final Duration LOAD_TIMEOUT = Duration.ofMinutes(2);
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final AWSLambda lambda;
-    private final ObjectMapper mapper;
     private final DynamoDBMapper dbMapper;
+    private final AmazonDynamoDB amazonDynamoDB;
 
     private final MachineService machineService;
     private final ProjectFinder projectFinder;
@@ -68,24 +91,30 @@ public class CemService implements ProjectService {
 
     private final CemNetworkService networkService;
     private final InstanceTypeService instanceTypeService;
+    private final BlueprintFunction blueprintFunction;
+    private final WorkerPool workerPool;
+
+    private final Map<String, InstanceSizer> sizers = new ConcurrentHashMap<>();
 
     CemService(
-            AWSLambda lambda,
-            ObjectMapper mapper,
             DynamoDBMapper dbMapper,
+            AmazonDynamoDB amazonDynamoDB,
             MachineService machineService,
             ProjectFinder projectFinder,
             RegionService regionService,
             CemNetworkService networkService,
-            InstanceTypeService instanceTypeService) {
-        this.lambda = lambda;
-        this.mapper = mapper;
+            InstanceTypeService instanceTypeService,
+            BlueprintFunction blueprintFunction,
+            WorkerPool workerPool) {
         this.dbMapper = dbMapper;
+        this.amazonDynamoDB = amazonDynamoDB;
         this.machineService = machineService;
         this.projectFinder = projectFinder;
         this.regionService = regionService;
         this.networkService = networkService;
         this.instanceTypeService = instanceTypeService;
+        this.blueprintFunction = blueprintFunction;
+        this.workerPool = workerPool;
     }
 
     public void create(CreateCemProjectRequest request) {
@@ -122,120 +151,541 @@ public class CemService implements ProjectService {
                 .withExpressionAttributeValues(Map.of(":id", new AttributeValue().withS(project.getId()))));
     }
 
-    public void loadBlueprints(Project project) {
+    /**
+     * @param cursor the cursor of the previous page, {@code null} for the first page.
+     * @throws IllegalArgumentException if the cursor has not been returned by a previous page.
+     */
+    public BlueprintPage getBlueprints(Project project, int pageSize, @Nullable String cursor) {
+        final var startMachineId = cursor == null ? null : decodeCursor(cursor);
+        final var expression = new DynamoDBQueryExpression<CemBlueprint>()
+                .withKeyConditionExpression("id = :id")
+                .withExpressionAttributeValues(Map.of(":id", new AttributeValue().withS(project.getId())))
+                .withLimit(Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE)));
+        if (startMachineId != null) {
+            expression.withExclusiveStartKey(Map.of(
+                    "id", new AttributeValue().withS(project.getId()),
+                    "machineId", new AttributeValue().withS(startMachineId)));
+        }
+
+        final var page = dbMapper.queryPage(CemBlueprint.class, expression);
+        final var lastKey = page.getLastEvaluatedKey();
+        return ImmutableBlueprintPage.builder()
+                .blueprints(page.getResults().toArray(new CemBlueprint[0]))
+                .cursor(lastKey == null ? null : Base64.getUrlEncoder().withoutPadding()
+                        .encodeToString(lastKey.get("machineId").getS().getBytes(StandardCharsets.UTF_8)))
+                .build();
+    }
+
+    private static String decodeCursor(String cursor) {
+        final byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+        }
+
+        if (bytes.length == 0 || bytes.length > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+        try {
+            return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes)).toString();
+        } catch (CharacterCodingException e) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+        }
+    }
+
+    /**
+     * Synchronizes the blueprints with the CloudEndure machines: blueprints are created for new machines, existing
+     * blueprints are saved only if their security groups have changed, and blueprints of machines which no longer exist
+     * are removed together with their address leases. Every write is checked against the blueprint version, so a
+     * blueprint edited meanwhile is left as it is.
+     * <p>
+     * If the machine list looks incomplete, empty or missing most of the machines with blueprints, the blueprints of the
+     * missing machines are kept and reported as orphaned instead.
+     */
+    public LoadBlueprintsResult loadBlueprints(Project project) {
         final var item = project.getCemProject().getProject();
-        final var machines = machineService.findAll(item.getId());
-        final var subnet = networkService.findSubnet(project, false);
-        final var securityGroups = networkService.findSecurityGroups(project);
-        final var addresses = networkService.findIpAddress(project, subnet, machines.length);
-        final var blueprintMap = getBlueprints(project).stream().collect(Collectors.toMap(CemBlueprint::getMachineId, i -> i));
-        final var newBlueprints = new ArrayList<CemBlueprint>();
-        for (int i = 0; i < machines.length; i++) {
-            CemBlueprint blueprint = blueprintMap.get(machines[i].getId());
+
+        // independent lookups run side by side, addresses are leased once the new machines and the subnet are known.
+        final var machinesFuture = workerPool.submit(() -> machineService.findAll(item.getId()));
+        final var securityGroupsFuture = workerPool.submit(() -> networkService.findSecurityGroups(project));
+        final var blueprintsFuture = workerPool.submit(() -> getBlueprints(project).stream()
+                .collect(Collectors.toMap(CemBlueprint::getMachineId, i -> i)));
+        final var subnetFuture = workerPool.submit(() -> networkService.findSubnet(project, false));
+        final var newMachinesFuture = machinesFuture.thenCombine(blueprintsFuture, (machines, blueprintMap) ->
+                Arrays.stream(machines)
+                        .filter(m -> !blueprintMap.containsKey(m.getId()))
+                        .collect(Collectors.toList()));
+        // cancelling does not stop a running lease stage, it is told to stop and its late result is released.
+        final var cancelled = new AtomicBoolean();
+        final var leasedFuture = new CompletableFuture<List<String>>();
+        final var addressesFuture = newMachinesFuture.thenCompose(newMachines -> newMachines.isEmpty()
+                ? CompletableFuture.completedFuture(List.<String>of())
+                : subnetFuture.thenApply(subnet -> {
+                    final var leased = networkService.findIpAddress(project, subnet, newMachines.stream()
+                                    .map(CloudEndureMachine::getId)
+                                    .collect(Collectors.toList()), storedAddresses(blueprintsFuture.join().values()),
+                            cancelled::get);
+                    leasedFuture.complete(leased);
+                    return leased;
+                }));
+
+        try {
+            WorkerPool.awaitAll(LOAD_TIMEOUT, securityGroupsFuture, addressesFuture);
+        } catch (RuntimeException e) {
+            cancelled.set(true);
+            leasedFuture.thenAccept(leased -> releaseIpAddresses(project, newMachinesFuture.join(), leased));
+            throw e;
+        } finally {
+            subnetFuture.cancel(true);
+        }
+
+        final var machines = machinesFuture.join();
+        final var securityGroups = securityGroupsFuture.join();
+        final var blueprintMap = blueprintsFuture.join();
+        final var newMachines = newMachinesFuture.join();
+        final var addresses = addressesFuture.join();
+
+        final var changed = new ArrayList<CemBlueprint>();
+        if (!newMachines.isEmpty()) {
+            try {
+                final var subnet = subnetFuture.join();
+                final var sizer = getSizer(project);
+                for (int i = 0; i < newMachines.size(); i++) {
+                    changed.add(createBlueprint(project, newMachines.get(i), subnet, addresses.get(i), securityGroups,
+                            sizer));
+                }
+            } catch (RuntimeException e) {
+                releaseIpAddresses(project, newMachines, addresses);
+                throw e;
+            }
+        }
+
+        var unchanged = 0;
+        final var machineIds = new HashSet<String>();
+        for (var machine : machines) {
+            machineIds.add(machine.getId());
+            final var blueprint = blueprintMap.get(machine.getId());
             if (blueprint == null) {
-                final var p = machines[i].getSourceProperties();
-                final var cpus = p.getCpu().length == 0 ? 1 : p.getCpu()[0].getCores();
-
-                blueprint = new CemBlueprint();
-                blueprint.setId(project.getId());
-                blueprint.setCpus(cpus);
-                blueprint.setMemory(p.getMemory());
-                blueprint.setPublicSubnet(false);
-                blueprint.setMachineId(machines[i].getId());
-                blueprint.setName(p.getName());
-                blueprint.setOsName(p.getOs());
-                blueprint.setInstanceType(InstanceType.find(true, cpus, p.getMemory() / GB).getName());
-                blueprint.setSubnetId(subnet.getSubnetId());
-                blueprint.setIpAddress(addresses.get(i));
-                blueprint.setSecurityGroups(securityGroups.get(p.getName()));
-                blueprint.setDisks(Arrays.stream(p.getDisks()).map(CloudEndureDisk::getName).toArray(String[]::new));
-                blueprint.setDiskIops(3000);
-                blueprint.setDiskType(DiskType.STANDARD);
+                continue;
+            }
+
+            final var groups = securityGroups.get(blueprint.getName());
+            if (groupIds(groups).equals(groupIds(blueprint.getSecurityGroups()))) {
+                unchanged++;
             } else {
-                blueprint.setSecurityGroups(securityGroups.get(blueprint.getName()));
+                blueprint.setSecurityGroups(groups);
+                changed.add(blueprint);
+            }
+        }
+
+        final var removed = blueprintMap.values().stream()
+                .filter(b -> !machineIds.contains(b.getMachineId()))
+                .collect(Collectors.toList());
+
+        final var orphaned = isIncomplete(machines.length, blueprintMap.size(), removed.size());
+        if (orphaned) {
+            log.warn("Machine list of project [{}] looks incomplete ({} machines, {} blueprints), keep {} blueprints",
+                    project.getId(), machines.length, blueprintMap.size(), removed.size());
+        }
+
+        log.debug("Sync blueprints of project [{}]: {} added, {} updated, {} unchanged, {} removed", project.getId(),
+                newMachines.size(), changed.size() - newMachines.size(), unchanged, orphaned ? 0 : removed.size());
+        final var saveFutures = new ArrayList<CompletableFuture<Boolean>>();
+        for (int i = 0; i < changed.size(); i++) {
+            final var blueprint = changed.get(i);
+            final var leasedAddress = i < newMachines.size() ? addresses.get(i) : null;
+            saveFutures.add(workerPool.submit(() -> saveVersioned(project, blueprint, leasedAddress)));
+        }
+        final var saved = WorkerPool.joinAll(saveFutures);
+
+        renewIpAddresses(project, blueprintMap.values().stream()
+                .filter(b -> machineIds.contains(b.getMachineId()))
+                .collect(Collectors.toList()));
+
+        final var deleteFutures = new ArrayList<CompletableFuture<Boolean>>();
+        if (!orphaned) {
+            for (var blueprint : removed) {
+                deleteFutures.add(workerPool.submit(() -> deleteVersioned(project, blueprint)));
+            }
+        }
+        final var deleted = WorkerPool.joinAll(deleteFutures);
+
+        return ImmutableLoadBlueprintsResult.builder()
+                .added((int) saved.subList(0, newMachines.size()).stream().filter(b -> b).count())
+                .updated((int) saved.subList(newMachines.size(), saved.size()).stream().filter(b -> b).count())
+                .unchanged(unchanged)
+                .removed((int) deleted.stream().filter(b -> b).count())
+                .orphaned(orphaned ? removed.size() : 0)
+                .build();
+    }
+
+    /**
+     * @return whether the machine list is empty, or misses most of the machines with blueprints, so that the blueprints
+     * of the missing machines should not be trusted to be stale.
+     */
+    private static boolean isIncomplete(int machines, int blueprints, int missing) {
+        if (missing == 0) {
+            return false;
+        }
+        return machines == 0 || (missing > MAX_UNCHECKED_REMOVALS && missing * 2 > blueprints);
+    }
+
+    /**
+     * Saves the blueprint unless it has been created, changed or removed meanwhile; the leased address of a new
+     * blueprint is released if it is not saved.
+     *
+     * @return whether the blueprint has been saved.
+     */
+    private boolean saveVersioned(Project project, CemBlueprint blueprint, @Nullable String leasedAddress) {
+        var persisted = false;
+        try {
+            dbMapper.save(blueprint);
+            persisted = true;
+        } catch (ConditionalCheckFailedException e) {
+            log.warn("Blueprint of machine [{}] has changed meanwhile, skip it", blueprint.getMachineId());
+        } finally {
+            if (!persisted && leasedAddress != null) {
+                networkService.releaseIpAddress(project, blueprint.getMachineId(), leasedAddress);
+            }
+        }
+        return persisted;
+    }
+
+    /**
+     * Deletes the blueprint unless it has been changed meanwhile, then releases its address lease.
+     *
+     * @return whether the blueprint has been deleted.
+     */
+    private boolean deleteVersioned(Project project, CemBlueprint blueprint) {
+        try {
+            dbMapper.delete(blueprint);
+        } catch (ConditionalCheckFailedException e) {
+            log.warn("Blueprint of machine [{}] has changed meanwhile, keep it", blueprint.getMachineId());
+            return false;
+        }
+
+        if (blueprint.getIpAddress() != null) {
+            networkService.releaseIpAddress(project, blueprint.getMachineId(), blueprint.getIpAddress());
+        }
+        return true;
+    }
+
+    private void releaseIpAddresses(Project project, List<CloudEndureMachine> machines, List<String> addresses) {
+        for (int i = 0; i < addresses.size(); i++) {
+            networkService.releaseIpAddress(project, machines.get(i).getId(), addresses.get(i));
+        }
+    }
+
+    /**
+     * Renews side by side the address leases of existing blueprints which are missing or about to expire, which also
+     * backfills leases for blueprints created before addresses were leased. Leases are read in batches first, so an
+     * unchanged project costs no writes.
+     */
+    private void renewIpAddresses(Project project, List<CemBlueprint> blueprints) {
+        final var addresses = new HashMap<String, String>();
+        for (var blueprint : blueprints) {
+            if (blueprint.getIpAddress() != null) {
+                addresses.put(blueprint.getMachineId(), blueprint.getIpAddress());
             }
+        }
+        if (addresses.isEmpty()) {
+            return;
+        }
 
-            newBlueprints.add(blueprint);
+        final var futures = new ArrayList<CompletableFuture<Boolean>>();
+        for (var machineId : networkService.findStaleLeases(project, addresses)) {
+            futures.add(workerPool.submit(() -> networkService.renewIpAddress(
+                    project, machineId, addresses.get(machineId))));
         }
-        dbMapper.batchSave(newBlueprints);
+        WorkerPool.joinAll(futures);
+    }
+
+    private List<String> storedAddresses(Collection<CemBlueprint> blueprints) {
+        return blueprints.stream()
+                .map(CemBlueprint::getIpAddress)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
     }
 
-    public void setBlueprint(Project project, SetBlueprintRequest request) {
-        final var size = request.getMachineIds().length;
+    private CemBlueprint createBlueprint(
+            Project project,
+            CloudEndureMachine machine,
+            Subnet subnet,
+            String address,
+            Map<String, List<AwsSecurityGroup>> securityGroups,
+            InstanceSizer sizer) {
+        final var p = machine.getSourceProperties();
+        final var cpus = p.getCpu().length == 0 ? 1 : p.getCpu()[0].getCores();
+
+        final var blueprint = new CemBlueprint();
+        blueprint.setId(project.getId());
+        blueprint.setCpus(cpus);
+        blueprint.setMemory(p.getMemory());
+        blueprint.setPublicSubnet(false);
+        blueprint.setMachineId(machine.getId());
+        blueprint.setName(p.getName());
+        blueprint.setOsName(p.getOs());
+        blueprint.setInstanceType(size(sizer, true, cpus, p.getMemory(), subnet.getAvailabilityZoneId()));
+        blueprint.setSubnetId(subnet.getSubnetId());
+        blueprint.setIpAddress(address);
+        blueprint.setSecurityGroups(securityGroups.get(p.getName()));
+        blueprint.setDisks(Arrays.stream(p.getDisks()).map(CloudEndureDisk::getName).toArray(String[]::new));
+        blueprint.setDiskIops(3000);
+        blueprint.setDiskType(DiskType.STANDARD);
+        return blueprint;
+    }
+
+    /**
+     * @return the sizer of the target region, rebuilt only when the region's catalog has been reloaded.
+     */
+    private InstanceSizer getSizer(Project project) {
+        final var region = project.getTargetRegion().getName();
+        final var catalog = instanceTypeService.getCatalog(region, null);
+        return sizers.compute(region, (k, sizer) ->
+                sizer != null && sizer.getCatalog() == catalog ? sizer : new InstanceSizer(catalog));
+    }
+
+    /**
+     * @param memory memory of the machine in bytes.
+     */
+    private String size(
+            InstanceSizer sizer,
+            boolean economy,
+            int cpus,
+            long memory,
+            @Nullable String availabilityZoneId) {
+        final var type = sizer.find(economy, cpus, memory / MB, availabilityZoneId);
+        return type == null ? T2_LARGE : type;
+    }
+
+    private List<String> groupIds(List<AwsSecurityGroup> groups) {
+        return groups == null
+                ? List.of()
+                : groups.stream().map(AwsSecurityGroup::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * Loads the blueprints in batches, then saves each of them with its version check. A blueprint modified
+     * concurrently is reloaded and the edit is applied again.
+     *
+     * @return the outcome for each machine, in the order of the request.
+     */
+    public MachineResult[] setBlueprint(Project project, SetBlueprintRequest request) {
+        final var machineIds = Arrays.asList(request.getMachineIds());
         Subnet subnet = null;
         List<String> addresses = null;
 
         if (!request.getSubnetIntact()) {
             subnet = networkService.findSubnet(project, request.getPublicSubnet());
-            addresses = networkService.findIpAddress(project, subnet, size);
+            addresses = networkService.findIpAddress(project, subnet, machineIds,
+                    storedAddresses(getBlueprints(project)));
         }
 
-        for (int i = 0; i < size; i++) {
-            final var blueprint = dbMapper.load(CemBlueprint.class, project.getId(), request.getMachineIds()[i]);
-
-            if (!request.getSubnetIntact()) {
-                blueprint.setPublicSubnet(request.getPublicSubnet());
-                blueprint.setSubnetId(subnet.getSubnetId());
-                blueprint.setIpAddress(addresses.get(i));
+        final var sizer = !request.getInstanceIntact()
+                && (request.getInstanceType().equals(ECONOMY) || request.getInstanceType().equals(BUSINESS))
+                ? getSizer(project)
+                : null;
+        final var topology = sizer == null ? null : networkService.getTopology(project);
+
+        final var blueprints = batchLoadBlueprints(project, machineIds);
+        final var futures = new ArrayList<CompletableFuture<MachineResult>>();
+        for (int i = 0; i < machineIds.size(); i++) {
+            final var machineId = machineIds.get(i);
+            final var blueprint = blueprints.get(machineId);
+            final var address = addresses == null ? null : addresses.get(i);
+            if (blueprint == null) {
+                if (address != null) {
+                    networkService.releaseIpAddress(project, machineId, address);
+                }
+                futures.add(CompletableFuture.completedFuture(MachineResult.of(machineId, Status.missing)));
+                continue;
             }
 
-            if (!request.getDiskIntact()) {
-                switch (request.getDiskType()) {
-                    case ECONOMY:
-                        blueprint.setDiskType(DiskType.STANDARD);
-                        break;
+            final var subnetId = subnet == null ? null : subnet.getSubnetId();
+            futures.add(workerPool.submit(() -> save(project, blueprint,
+                    b -> edit(b, request, subnetId, address, sizer, topology), address)));
+        }
+        return WorkerPool.joinAll(futures).toArray(new MachineResult[0]);
+    }
+
+    private void edit(
+            CemBlueprint blueprint,
+            SetBlueprintRequest request,
+            String subnetId,
+            String address,
+            @Nullable InstanceSizer sizer,
+            @Nullable VpcTopology topology) {
+        if (!request.getSubnetIntact()) {
+            blueprint.setPublicSubnet(request.getPublicSubnet());
+            blueprint.setSubnetId(subnetId);
+            blueprint.setIpAddress(address);
+        }
 
-                    case BUSINESS:
-                        blueprint.setDiskType(DiskType.SSD);
-                        break;
+        if (!request.getDiskIntact()) {
+            switch (request.getDiskType()) {
+                case ECONOMY:
+                    blueprint.setDiskType(DiskType.STANDARD);
+                    break;
 
-                    case CUSTOMIZED:
-                        blueprint.setDiskType(DiskType.PROVISIONED_SSD);
-                        break;
-                }
+                case BUSINESS:
+                    blueprint.setDiskType(DiskType.SSD);
+                    break;
+
+                case CUSTOMIZED:
+                    blueprint.setDiskType(DiskType.PROVISIONED_SSD);
+                    break;
+            }
+        }
+
+        if (!request.getInstanceIntact()) {
+            switch (request.getInstanceType()) {
+                case ECONOMY:
+                case BUSINESS:
+                    final var subnet = blueprint.getSubnetId() == null
+                            ? null
+                            : topology.getSubnet(blueprint.getSubnetId());
+                    blueprint.setInstanceType(size(sizer, request.getInstanceType().equals(ECONOMY),
+                            blueprint.getCpus(), blueprint.getMemory(),
+                            subnet == null ? null : subnet.getAvailabilityZoneId()));
+                    break;
+
+                case CUSTOMIZED:
+                    blueprint.setInstanceType(request.getInstanceType());
+                    break;
             }
+        }
+    }
 
-            if (!request.getInstanceIntact()) {
-                switch (request.getInstanceType()) {
-                    case ECONOMY:
-                    case BUSINESS:
-                        var instanceType = InstanceType.find(request.getInstanceType().equals("economy"), blueprint.getCpus(), blueprint.getMemory() / GB);
-                        blueprint.setInstanceType(instanceType.getName());
-                        break;
-
-                    case CUSTOMIZED:
-                        blueprint.setInstanceType(request.getInstanceType());
-                        break;
+    /**
+     * Applies the edit and saves the blueprint, guarded by its version attribute. The address the blueprint held
+     * before is released once another one has been saved; the newly leased address is released if the blueprint is
+     * not saved.
+     */
+    private MachineResult save(
+            Project project,
+            CemBlueprint loaded,
+            Consumer<CemBlueprint> edit,
+            @Nullable String leasedAddress) {
+        final var machineId = loaded.getMachineId();
+        var persisted = false;
+        try {
+            var blueprint = loaded;
+            for (int attempt = 0; ; attempt++) {
+                final var previousAddress = blueprint.getIpAddress();
+                edit.accept(blueprint);
+                try {
+                    dbMapper.save(blueprint);
+                    persisted = true;
+                    if (previousAddress != null && !previousAddress.equals(blueprint.getIpAddress())) {
+                        networkService.releaseIpAddress(project, machineId, previousAddress);
+                    }
+                    return MachineResult.of(machineId, Status.success);
+                } catch (ConditionalCheckFailedException e) {
+                    if (attempt == MAX_CONFLICT_RETRIES) {
+                        log.warn("Blueprint of machine [{}] keeps changing, give up", machineId);
+                        return MachineResult.of(machineId, Status.conflict);
+                    }
+
+                    blueprint = dbMapper.load(CemBlueprint.class, project.getId(), machineId);
+                    if (blueprint == null) {
+                        return MachineResult.of(machineId, Status.missing);
+                    }
                 }
             }
+        } catch (RuntimeException e) {
+            log.warn("Unable to save blueprint of machine [{}]", machineId, e);
+            return MachineResult.failed(machineId, e.getMessage());
+        } finally {
+            if (!persisted && leasedAddress != null) {
+                networkService.releaseIpAddress(project, machineId, leasedAddress);
+            }
+        }
+    }
 
-            dbMapper.save(blueprint);
+    /**
+     * @return a map from machine ID to blueprint, read with batched gets.
+     */
+    private Map<String, CemBlueprint> batchLoadBlueprints(Project project, Collection<String> machineIds) {
+        final var keys = machineIds.stream().map(machineId -> {
+            final var key = new CemBlueprint();
+            key.setId(project.getId());
+            key.setMachineId(machineId);
+            return key;
+        }).collect(Collectors.toList());
+
+        return dbMapper.batchLoad(keys).values().stream()
+                .flatMap(List::stream)
+                .map(CemBlueprint.class::cast)
+                .collect(Collectors.toMap(CemBlueprint::getMachineId, i -> i));
+    }
+
+    /**
+     * Replaces only the security groups of each blueprint with an update expression, without reading the blueprints.
+     * The version is incremented, so that concurrent read-modify-write saves of the same blueprint fail their version
+     * check instead of overwriting the groups.
+     *
+     * @return the outcome for each machine, in the order of the request.
+     */
+    public MachineResult[] selectSecurityGroup(Project project, SelectSecurityGroupRequest request) {
+        final var model = dbMapper.getTableModel(CemBlueprint.class);
+        final var groups = model.field("securityGroups").convert(Arrays.asList(request.getSecurityGroups()));
+        final var futures = new ArrayList<CompletableFuture<MachineResult>>();
+        for (var machineId : request.getMachineIds()) {
+            futures.add(workerPool.submit(() -> updateSecurityGroups(model, project.getId(), machineId, groups)));
         }
+        return WorkerPool.joinAll(futures).toArray(new MachineResult[0]);
     }
 
-    public void selectSecurityGroup(Project project, SelectSecurityGroupRequest request) {
-        final var size = request.getMachineIds().length;
-        for (int i = 0; i < size; i++) {
-            final var blueprint = dbMapper.load(CemBlueprint.class, project.getId(), request.getMachineIds()[i]);
-            blueprint.setSecurityGroups(Arrays.asList(request.getSecurityGroups()));
-            dbMapper.save(blueprint);
+    private MachineResult updateSecurityGroups(
+            DynamoDBMapperTableModel<CemBlueprint> model,
+            String projectId,
+            String machineId,
+            AttributeValue groups) {
+        try {
+            amazonDynamoDB.updateItem(new UpdateItemRequest()
+                    .withTableName(CemConstants.TABLE_BLUEPRINT)
+                    .withKey(Map.of(
+                            model.hashKey().name(), new AttributeValue().withS(projectId),
+                            model.rangeKey().name(), new AttributeValue().withS(machineId)))
+                    .withUpdateExpression("SET #g = :g, #u = :u ADD #v :one")
+                    .withConditionExpression("attribute_exists(#v)")
+                    .withExpressionAttributeNames(Map.of(
+                            "#g", model.field("securityGroups").name(),
+                            "#u", model.field("lastUpdatedDate").name(),
+                            "#v", model.field("version").name()))
+                    .withExpressionAttributeValues(Map.of(
+                            ":g", groups,
+                            ":u", model.field("lastUpdatedDate").convert(new Date()),
+                            ":one", new AttributeValue().withN("1"))));
+            return MachineResult.of(machineId, Status.success);
+        } catch (ConditionalCheckFailedException e) {
+            return MachineResult.of(machineId, Status.missing);
+        } catch (RuntimeException e) {
+            log.warn("Unable to update security groups of machine [{}]", machineId, e);
+            return MachineResult.failed(machineId, e.getMessage());
         }
     }
 
-    public void configureBlueprint(Project project, ConfigureBlueprintRequest request) {
+    /**
+     * Configures the CloudEndure blueprints in batches which run side by side. A failure of one machine does not stop
+     * the others.
+     *
+     * @return the outcome for each machine, in the order of the request.
+     */
+    public MachineResult[] configureBlueprint(Project project, ConfigureBlueprintRequest request) {
         final var ceProject = project.getCemProject().getProject();
         log.info("Configure blueprint for project [{}]", ceProject.getName());
 
-        final AmazonEC2 ec2 = AmazonEC2ClientBuilder.standard()
-                .withRegion(project.getTargetRegion().toAwsRegion())
-                .build();
-
         final var tags = List.of(new Tag(CloudEndureConstants.TAG_BLUEPRINT,
                 ZonedDateTime.now().format(DateTimeFormatter.ISO_ZONED_DATE_TIME)));
 
+        final var topology = networkService.getTopology(project);
+        final var payloads = new ArrayList<Map<String, Object>>();
         for (var blueprint : request.getBlueprints()) {
-            final var instanceType = instanceTypeService.mapType(ec2, project.getTargetRegion().getName(),
-                    blueprint.getInstanceType(), T2_LARGE);
+            final var subnet = blueprint.getSubnetId() == null ? null : topology.getSubnet(blueprint.getSubnetId());
+            final var instanceType = instanceTypeService.mapType(project.getTargetRegion().getName(), null,
+                    blueprint.getInstanceType(), T2_LARGE, subnet == null ? null : subnet.getAvailabilityZoneId());
             final var itemId = ceProject.getId();
 
             final var payload = new HashMap<String, Object>();
@@ -251,16 +701,8 @@ public class CemService implements ProjectService {
             payload.put("diskType", blueprint.getDiskType());
             payload.put("tags", tags);
 
-            try {
-                final var invoke = lambda.invoke(new InvokeRequest()
-                        .withFunctionName("DRPCloudEndureConfigureBlueprint")
-                        .withPayload(mapper.writeValueAsString(payload)));
-                final var output = StandardCharsets.UTF_8.decode(invoke.getPayload()).toString();
-                log.debug("Configure blueprint output [{}]", output);
-                mapper.readValue(output, CloudEndureBlueprint.class);
-            } catch (IOException e) {
-                throw new UncheckedIOException("Unable to configure blueprint", e);
-            }
+            payloads.add(payload);
         }
+        return blueprintFunction.configureAll(payloads).toArray(new MachineResult[0]);
     }
 }
@@ -0,0 +1,87 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.cem.service;
+
+import aws.proserve.bcs.ce.service.MachinesLaunchedEvent;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeNetworkInterfacesRequest;
+import com.amazonaws.services.ec2.model.DescribeNetworkInterfacesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+
+import javax.inject.Named;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the private addresses used by network interfaces, grouped by VPC and subnet. Only the requested subnet is
+ * scanned when its entry is missing or expired.
+ * <p>
+ * Addresses leased to blueprints are guarded by {@link IpLeaseStore}; the short TTL only covers interfaces created
+ * outside the portal. Our own launches drop the whole index.
+ */
+@Named
+class EniAddressIndex {
+    static final Duration TTL = Duration.ofMinutes(1);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Map<String, Map<String, SubnetAddresses>> vpcs = new ConcurrentHashMap<>();
+
+    int[] getAddresses(AmazonEC2 ec2, String vpcId, String subnetId) {
+        return vpcs.computeIfAbsent(vpcId, k -> new ConcurrentHashMap<>())
+                .compute(subnetId, (k, addresses) -> addresses == null || addresses.isExpired()
+                        ? load(ec2, subnetId)
+                        : addresses)
+                .addresses;
+    }
+
+    @EventListener
+    void onMachinesLaunched(MachinesLaunchedEvent event) {
+        log.debug("Machines of project [{}] launched, drop the ENI address index", event.getProject().getId());
+        vpcs.clear();
+    }
+
+    private SubnetAddresses load(AmazonEC2 ec2, String subnetId) {
+        var addresses = new int[64];
+        var size = 0;
+        final var request = new DescribeNetworkInterfacesRequest()
+                .withFilters(new Filter("subnet-id").withValues(subnetId));
+        DescribeNetworkInterfacesResult result;
+        do {
+            result = ec2.describeNetworkInterfaces(request);
+            request.setNextToken(result.getNextToken());
+
+            for (var i : result.getNetworkInterfaces()) {
+                for (var address : i.getPrivateIpAddresses()) {
+                    if (size == addresses.length) {
+                        addresses = Arrays.copyOf(addresses, size * 2);
+                    }
+                    addresses[size++] = AddressBitmap.toInt(address.getPrivateIpAddress());
+                }
+            }
+        } while (result.getNextToken() != null);
+
+        log.debug("Found {} used addresses in subnet {}", size, subnetId);
+        return new SubnetAddresses(Arrays.copyOf(addresses, size), System.currentTimeMillis() + TTL.toMillis());
+    }
+
+    private static class SubnetAddresses {
+        private final int[] addresses;
+        private final long expiresAt;
+
+        SubnetAddresses(int[] addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.cem.service;
+
+import aws.proserve.bcs.ce.dto.InstanceTypeCatalog;
+import aws.proserve.bcs.ce.dto.InstanceTypeSpec;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the smallest current-generation x86 instance type of a region's catalog that fits a machine. Economy sizing
+ * prefers the burstable <code>t</code> families and falls back to the general purpose <code>m</code> families, which
+ * business sizing uses directly.
+ * <p>
+ * Each tier groups its types by vCPU count and sorts every group by memory, then by newest generation. A query
+ * binary-searches the first group with enough vCPUs and then the first type with enough memory in each group from
+ * there on; a region has only a few dozen distinct vCPU counts, so a query stays logarithmic in the number of types.
+ * Given the zone of the subnet, types the zone does not offer are skipped for the next fitting one.
+ */
+class InstanceSizer {
+    static final String ARCHITECTURE = "x86_64";
+
+    private static final Pattern NAME = Pattern.compile("([a-z]+)(\\d+)[a-z-]*\\.(.+)");
+
+    private final InstanceTypeCatalog catalog;
+    private final Tier economy;
+    private final Tier business;
+
+    InstanceSizer(InstanceTypeCatalog catalog) {
+        this.catalog = catalog;
+        this.economy = new Tier(catalog, t -> family(t).equals("t") && t.getBurstable());
+        this.business = new Tier(catalog, t -> family(t).equals("m"));
+    }
+
+    InstanceTypeCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * @param memory             memory of the machine in MiB.
+     * @param availabilityZoneId the zone ID of the subnet, {@code null} to accept any type of the region.
+     * @return the smallest fitting type offered in the zone, the largest general purpose type offered if none fits,
+     * or {@code null} if the zone offers no candidates at all.
+     */
+    @Nullable
+    String find(boolean economy, int cpus, long memory, @Nullable String availabilityZoneId) {
+        final Predicate<String> offered = type -> catalog.isOffered(type, availabilityZoneId);
+        if (economy) {
+            final var type = this.economy.find(cpus, memory, offered);
+            if (type != null) {
+                return type;
+            }
+        }
+
+        final var type = business.find(cpus, memory, offered);
+        return type != null ? type : business.getLargest(offered);
+    }
+
+    private static String family(InstanceTypeSpec type) {
+        final var matcher = NAME.matcher(type.getName());
+        return matcher.matches() ? matcher.group(1) : "";
+    }
+
+    private static int generation(InstanceTypeSpec type) {
+        final var matcher = NAME.matcher(type.getName());
+        return matcher.matches() ? Integer.parseInt(matcher.group(2)) : 0;
+    }
+
+    private static boolean isVirtual(InstanceTypeSpec type) {
+        final var matcher = NAME.matcher(type.getName());
+        return matcher.matches() && !matcher.group(3).startsWith("metal");
+    }
+
+    private static class Tier {
+        private final int[] cpus;
+        private final long[][] memories;
+        private final String[][] names;
+
+        Tier(InstanceTypeCatalog catalog, Predicate<InstanceTypeSpec> filter) {
+            final var types = new ArrayList<InstanceTypeSpec>();
+            for (var type : catalog.getTypes().values()) {
+                if (type.getCurrentGeneration()
+                        && type.getArchitectures().contains(ARCHITECTURE)
+                        && isVirtual(type)
+                        && filter.test(type)) {
+                    types.add(type);
+                }
+            }
+            types.sort(Comparator.comparingInt(InstanceTypeSpec::getVcpus)
+                    .thenComparingLong(InstanceTypeSpec::getMemory)
+                    .thenComparing(Comparator.comparingInt(InstanceSizer::generation).reversed())
+                    .thenComparing(InstanceTypeSpec::getName));
+
+            final var groups = new ArrayList<List<InstanceTypeSpec>>();
+            for (var type : types) {
+                if (groups.isEmpty() || groups.get(groups.size() - 1).get(0).getVcpus() != type.getVcpus()) {
+                    groups.add(new ArrayList<>());
+                }
+                groups.get(groups.size() - 1).add(type);
+            }
+
+            this.cpus = new int[groups.size()];
+            this.memories = new long[groups.size()][];
+            this.names = new String[groups.size()][];
+            for (int i = 0; i < groups.size(); i++) {
+                final var group = groups.get(i);
+                cpus[i] = group.get(0).getVcpus();
+                memories[i] = group.stream().mapToLong(InstanceTypeSpec::getMemory).toArray();
+                names[i] = group.stream().map(InstanceTypeSpec::getName).toArray(String[]::new);
+            }
+        }
+
+        @Nullable
+        String find(int cpus, long memory, Predicate<String> offered) {
+            for (int i = lowerBound(this.cpus, cpus); i < this.cpus.length; i++) {
+                for (int j = lowerBound(memories[i], memory); j < memories[i].length; j++) {
+                    if (offered.test(names[i][j])) {
+                        return names[i][j];
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Nullable
+        String getLargest(Predicate<String> offered) {
+            for (int i = names.length - 1; i >= 0; i--) {
+                for (int j = names[i].length - 1; j >= 0; j--) {
+                    if (offered.test(names[i][j])) {
+                        return names[i][j];
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static int lowerBound(int[] values, int key) {
+            final var i = Arrays.binarySearch(values, key);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        /**
+         * Unlike {@link Arrays#binarySearch(long[], long)}, finds the first of equal values.
+         */
+        private static int lowerBound(long[] values, long key) {
+            var low = 0;
+            var high = values.length;
+            while (low < high) {
+                final var mid = (low + high) >>> 1;
+                if (values[mid] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.cem.service;
+
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Leases private IP addresses to blueprints so that concurrent blueprint edits in the same VPC never hand out the
+ * same address twice.
+ * <p>
+ * A lease is taken with a conditional write that only succeeds if the address is free, the previous lease has expired,
+ * or the lease already belongs to the same owner. Expired leases are also removed by the DynamoDB TTL on
+ * {@link #KEY_EXPIRES_AT}.
+ */
+@Named
+class IpLeaseStore {
+    static final String TABLE = "DRPCemIpLease";
+    static final String KEY_ADDRESS = "address";
+    static final String KEY_OWNER = "owner";
+    static final String KEY_EXPIRES_AT = "expiresAt";
+
+    /**
+     * A blueprint keeps its address until the machine is launched, which may be days after the blueprint is edited.
+     */
+    static final Duration LEASE_TTL = Duration.ofDays(7);
+
+    /**
+     * A lease is renewed once less than this is left of it.
+     */
+    static final Duration RENEW_WITHIN = Duration.ofDays(3);
+
+    private static final int MAX_BATCH_GET = 100;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DynamoDB dynamoDB;
+
+    IpLeaseStore(DynamoDB dynamoDB) {
+        this.dynamoDB = dynamoDB;
+    }
+
+    /**
+     * @return {@code true} if the owner holds the lease of the address afterwards.
+     */
+    boolean lease(String vpcId, String address, String owner) {
+        final var now = Instant.now();
+        try {
+            dynamoDB.getTable(TABLE).putItem(new Item()
+                            .withPrimaryKey(KEY_ADDRESS, key(vpcId, address))
+                            .withString(KEY_OWNER, owner)
+                            .withLong(KEY_EXPIRES_AT, now.plus(LEASE_TTL).getEpochSecond()),
+                    "attribute_not_exists(#a) OR #e < :now OR #o = :owner",
+                    Map.of("#a", KEY_ADDRESS, "#e", KEY_EXPIRES_AT, "#o", KEY_OWNER),
+                    Map.of(":now", now.getEpochSecond(), ":owner", owner));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            log.debug("Address {} of {} is leased by another owner", address, vpcId);
+            return false;
+        }
+    }
+
+    /**
+     * Reads the leases with batched gets.
+     *
+     * @param owners a map from address to the owner which should hold its lease.
+     * @return the addresses whose lease is missing, expires within {@link #RENEW_WITHIN}, or is held by another owner.
+     */
+    Set<String> findStale(String vpcId, Map<String, String> owners) {
+        final var renewBy = Instant.now().plus(RENEW_WITHIN).getEpochSecond();
+        final var stale = new HashSet<>(owners.keySet());
+        final var addresses = new ArrayList<>(owners.keySet());
+        for (int i = 0; i < addresses.size(); i += MAX_BATCH_GET) {
+            final var keys = addresses.subList(i, Math.min(i + MAX_BATCH_GET, addresses.size())).stream()
+                    .map(address -> key(vpcId, address))
+                    .toArray();
+            var outcome = dynamoDB.batchGetItem(new TableKeysAndAttributes(TABLE)
+                    .addHashOnlyPrimaryKeys(KEY_ADDRESS, keys)
+                    .withConsistentRead(true));
+            while (true) {
+                for (var item : outcome.getTableItems().getOrDefault(TABLE, List.of())) {
+                    final var key = item.getString(KEY_ADDRESS);
+                    final var address = key.substring(key.indexOf('/') + 1);
+                    if (owners.get(address).equals(item.getString(KEY_OWNER))
+                            && item.getLong(KEY_EXPIRES_AT) >= renewBy) {
+                        stale.remove(address);
+                    }
+                }
+
+                final var unprocessed = outcome.getUnprocessedKeys();
+                if (unprocessed == null || unprocessed.isEmpty()) {
+                    break;
+                }
+                outcome = dynamoDB.batchGetItemUnprocessed(unprocessed);
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Releases the lease if it still belongs to the owner.
+     */
+    void release(String vpcId, String address, String owner) {
+        try {
+            dynamoDB.getTable(TABLE).deleteItem(KEY_ADDRESS, key(vpcId, address),
+                    "#o = :owner",
+                    Map.of("#o", KEY_OWNER),
+                    Map.of(":owner", owner));
+        } catch (ConditionalCheckFailedException e) {
+            log.debug("Address {} of {} is no longer leased by {}", address, vpcId, owner);
+        }
+    }
+
+    static String owner(String projectId, String machineId) {
+        return projectId + '/' + machineId;
+    }
+
+    private String key(String vpcId, String address) {
+        return vpcId + '/' + address;
+    }
+}
@@ -0,0 +1,142 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.cem.service;
+
+import aws.proserve.bcs.dr.aws.AwsSecurityGroup;
+import aws.proserve.bcs.dr.ce.CloudEndureConstants;
+import aws.proserve.bcs.dr.vpc.Filters;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeSecurityGroupsRequest;
+import com.amazonaws.services.ec2.model.DescribeSecurityGroupsResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.SecurityGroup;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * An inverted index from machine name to the security groups of one VPC tagged with
+ * {@link CloudEndureConstants#TAG_MACHINE}.
+ * <p>
+ * On refresh only the groups whose tag value has changed, or which have appeared or disappeared, are re-indexed.
+ */
+class SecurityGroupIndex {
+    private final String vpcId;
+    private final long ttlMillis;
+
+    private final Map<String, TaggedGroup> groups = new HashMap<>();
+    private final Map<String, Map<String, AwsSecurityGroup>> machines = new HashMap<>();
+
+    private Map<String, List<AwsSecurityGroup>> snapshot = Map.of();
+    private long expiresAt;
+
+    SecurityGroupIndex(String vpcId, long ttlMillis) {
+        this.vpcId = vpcId;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return a map from machine name to security groups, refreshed first if it has expired.
+     */
+    synchronized Map<String, List<AwsSecurityGroup>> get(AmazonEC2 ec2) {
+        if (System.currentTimeMillis() >= expiresAt) {
+            refresh(ec2);
+            expiresAt = System.currentTimeMillis() + ttlMillis;
+        }
+        return snapshot;
+    }
+
+    private void refresh(AmazonEC2 ec2) {
+        final var seen = new HashSet<String>();
+        var changed = false;
+
+        final var request = new DescribeSecurityGroupsRequest().withFilters(
+                Filters.vpcId(vpcId),
+                new Filter("tag-key").withValues(CloudEndureConstants.TAG_MACHINE));
+        DescribeSecurityGroupsResult result;
+        do {
+            result = ec2.describeSecurityGroups(request);
+            request.setNextToken(result.getNextToken());
+
+            for (var group : result.getSecurityGroups()) {
+                seen.add(group.getGroupId());
+                final var tagged = new TaggedGroup(group);
+                final var previous = groups.get(group.getGroupId());
+                if (previous != null && previous.isSameAs(tagged)) {
+                    continue;
+                }
+
+                if (previous != null) {
+                    unlink(previous);
+                }
+                link(tagged);
+                changed = true;
+            }
+        } while (result.getNextToken() != null);
+
+        for (var iterator = groups.values().iterator(); iterator.hasNext(); ) {
+            final var group = iterator.next();
+            if (!seen.contains(group.group.getId())) {
+                iterator.remove();
+                removeMachines(group);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            snapshot = machines.entrySet().stream().collect(Collectors.toUnmodifiableMap(
+                    Map.Entry::getKey, e -> List.copyOf(e.getValue().values())));
+        }
+    }
+
+    private void link(TaggedGroup tagged) {
+        groups.put(tagged.group.getId(), tagged);
+        for (var machine : tagged.machines) {
+            machines.computeIfAbsent(machine, k -> new LinkedHashMap<>()).put(tagged.group.getId(), tagged.group);
+        }
+    }
+
+    private void unlink(TaggedGroup tagged) {
+        groups.remove(tagged.group.getId());
+        removeMachines(tagged);
+    }
+
+    private void removeMachines(TaggedGroup tagged) {
+        for (var machine : tagged.machines) {
+            final var machineGroups = machines.get(machine);
+            if (machineGroups != null) {
+                machineGroups.remove(tagged.group.getId());
+                if (machineGroups.isEmpty()) {
+                    machines.remove(machine);
+                }
+            }
+        }
+    }
+
+    private static class TaggedGroup {
+        private final AwsSecurityGroup group;
+        private final String groupName;
+        private final Set<String> machines;
+
+        TaggedGroup(SecurityGroup group) {
+            this.group = new AwsSecurityGroup(group.getGroupId(), group.getGroupName());
+            this.groupName = group.getGroupName();
+            this.machines = group.getTags().stream()
+                    .filter(t -> t.getKey().equals(CloudEndureConstants.TAG_MACHINE))
+                    .map(t -> t.getValue().split(","))
+                    .flatMap(Arrays::stream)
+                    .collect(Collectors.toSet());
+        }
+
+        boolean isSameAs(TaggedGroup other) {
+            return groupName.equals(other.groupName) && machines.equals(other.machines);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.cem.service;
+
+import aws.proserve.bcs.dr.vpc.Filters;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeRouteTablesRequest;
+import com.amazonaws.services.ec2.model.DescribeRouteTablesResult;
+import com.amazonaws.services.ec2.model.DescribeSubnetsRequest;
+import com.amazonaws.services.ec2.model.DescribeSubnetsResult;
+import com.amazonaws.services.ec2.model.RouteTable;
+import com.amazonaws.services.ec2.model.Subnet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A snapshot of the subnets of one VPC, each classified once as public or private.
+ * <p>
+ * A subnet is public if its route table routes to an internet gateway. Subnets without an explicit route table
+ * association use the main route table of the VPC.
+ */
+class VpcTopology {
+    private final String vpcId;
+    private final long expiresAt;
+    private final Map<String, Subnet> subnets;
+    private final List<Subnet> publicSubnets;
+    private final List<Subnet> privateSubnets;
+
+    private VpcTopology(
+            String vpcId,
+            long expiresAt,
+            Map<String, Subnet> subnets,
+            List<Subnet> publicSubnets,
+            List<Subnet> privateSubnets) {
+        this.vpcId = vpcId;
+        this.expiresAt = expiresAt;
+        this.subnets = subnets;
+        this.publicSubnets = publicSubnets;
+        this.privateSubnets = privateSubnets;
+    }
+
+    static VpcTopology load(AmazonEC2 ec2, String vpcId, long ttlMillis) {
+        final var subnets = new ArrayList<Subnet>();
+        final var subnetRequest = new DescribeSubnetsRequest().withFilters(Filters.vpcId(vpcId));
+        DescribeSubnetsResult subnetResult;
+        do {
+            subnetResult = ec2.describeSubnets(subnetRequest);
+            subnetRequest.setNextToken(subnetResult.getNextToken());
+            subnets.addAll(subnetResult.getSubnets());
+        } while (subnetResult.getNextToken() != null);
+
+        RouteTable mainTable = null;
+        final var associatedTables = new HashMap<String, RouteTable>();
+        final var tableRequest = new DescribeRouteTablesRequest().withFilters(Filters.vpcId(vpcId));
+        DescribeRouteTablesResult tableResult;
+        do {
+            tableResult = ec2.describeRouteTables(tableRequest);
+            tableRequest.setNextToken(tableResult.getNextToken());
+
+            for (var table : tableResult.getRouteTables()) {
+                for (var association : table.getAssociations()) {
+                    if (Boolean.TRUE.equals(association.getMain())) {
+                        mainTable = table;
+                    } else if (association.getSubnetId() != null) {
+                        associatedTables.put(association.getSubnetId(), table);
+                    }
+                }
+            }
+        } while (tableResult.getNextToken() != null);
+
+        final var subnetMap = new HashMap<String, Subnet>();
+        final var publicSubnets = new ArrayList<Subnet>();
+        final var privateSubnets = new ArrayList<Subnet>();
+        for (var subnet : subnets) {
+            subnetMap.put(subnet.getSubnetId(), subnet);
+            final var table = associatedTables.getOrDefault(subnet.getSubnetId(), mainTable);
+            if (routesToInternetGateway(table)) {
+                publicSubnets.add(subnet);
+            } else {
+                privateSubnets.add(subnet);
+            }
+        }
+
+        return new VpcTopology(vpcId, System.currentTimeMillis() + ttlMillis,
+                subnetMap, publicSubnets, privateSubnets);
+    }
+
+    private static boolean routesToInternetGateway(RouteTable table) {
+        if (table == null) {
+            return false;
+        }
+
+        for (var route : table.getRoutes()) {
+            if (route.getGatewayId() != null && route.getGatewayId().startsWith("igw-")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String getVpcId() {
+        return vpcId;
+    }
+
+    boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAt;
+    }
+
+    Subnet getSubnet(String subnetId) {
+        return subnets.get(subnetId);
+    }
+
+    /**
+     * @return the first subnet of the requested kind, or {@code null} if the VPC has none.
+     */
+    Subnet findSubnet(boolean publicSubnet) {
+        final var candidates = publicSubnet ? publicSubnets : privateSubnets;
+        return candidates.isEmpty() ? null : candidates.get(0);
+    }
+}